@@ -20,7 +20,7 @@ package org.killbill.billing.plugin.adyen.api;
 import java.util.List;
 import java.util.UUID;
 import org.killbill.billing.payment.api.PluginProperty;
-import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenAdditionalDataCodec;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
 import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.billing.plugin.api.payment.PluginPaymentMethodPlugin;
@@ -36,7 +36,7 @@ public class AdyenPaymentMethodPlugin extends PluginPaymentMethodPlugin {
         null,
         adyenPaymentMethodsRecord.getIsDefault() == PluginDao.TRUE,
         PluginProperties.buildPluginProperties(
-            AdyenDao.mapFromAdditionalDataString(adyenPaymentMethodsRecord.getAdditionalData())));
+            AdyenAdditionalDataCodec.read(adyenPaymentMethodsRecord.getAdditionalData())));
   }
 
   public AdyenPaymentMethodPlugin(
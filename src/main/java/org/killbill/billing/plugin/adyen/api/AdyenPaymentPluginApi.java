@@ -18,19 +18,24 @@ package org.killbill.billing.plugin.adyen.api;
 
 import static org.killbill.billing.plugin.adyen.core.resources.AdyenCheckoutService.IS_CHECKOUT;
 
-import com.adyen.model.notification.NotificationRequest;
 import com.adyen.model.notification.NotificationRequestItem;
-import com.adyen.notification.NotificationHandler;
-import com.adyen.util.HMACValidator;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
@@ -46,11 +51,17 @@ import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.adyen.api.exceptions.PaymentMethodException;
+import org.killbill.billing.plugin.adyen.client.AdyenHmacVerifierRegistry;
+import org.killbill.billing.plugin.adyen.client.AdyenNotificationParser;
 import org.killbill.billing.plugin.adyen.client.GatewayProcessor;
-import org.killbill.billing.plugin.adyen.client.GatewayProcessorFactory;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
 import org.killbill.billing.plugin.adyen.core.AdyenActivator;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
+import org.killbill.billing.plugin.adyen.dao.AdyenAdditionalDataCodec;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao.RecurringDetailReference;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
@@ -74,9 +85,9 @@ public class AdyenPaymentPluginApi
   public static final String SESSION_DATA = "sessionData";
   public static final String RECURRING_DATA = "recurring.recurringDetailReference";
   public static final String ENABLE_RECURRING = "enableRecurring";
-  protected static final ObjectMapper objectMapper = new ObjectMapper();
   private final AdyenConfigurationHandler adyenConfigurationHandler;
   private final AdyenDao adyenDao;
+  private final AdyenMetrics metrics = AdyenMetrics.getInstance();
 
   public AdyenPaymentPluginApi(
       final AdyenConfigurationHandler adyenConfigPropertiesConfigurationHandler,
@@ -198,14 +209,12 @@ public class AdyenPaymentPluginApi
     final Map<String, String> mergedProperties =
         PluginProperties.toStringMap(paymentMethodProps.getProperties(), properties);
     boolean recurring;
-    if (this.adyenConfigurationHandler.getConfigurable(context.getTenantId()).getHMACKey() == null
-        || this.adyenConfigurationHandler.getConfigurable(context.getTenantId()).getApiKey() == null
-        || this.adyenConfigurationHandler
-                .getConfigurable(context.getTenantId())
-                .getMerchantAccount()
-            == null
-        || this.adyenConfigurationHandler.getConfigurable(context.getTenantId()).getReturnUrl()
-            == null) {
+    final AdyenConfigProperties adyenConfigProperties =
+        this.adyenConfigurationHandler.getConfigurable(context.getTenantId());
+    if (adyenConfigProperties.getHMACKey() == null
+        || adyenConfigProperties.getApiKey() == null
+        || adyenConfigProperties.getMerchantAccount() == null
+        || adyenConfigProperties.getReturnUrl() == null) {
       throw new PaymentMethodException(
           "Missing one or more configuration properties (HMAC KEY/ Api Key / Merchant Account / Return URL) ");
     }
@@ -302,40 +311,58 @@ public class AdyenPaymentPluginApi
       final CallContext context)
       throws PaymentPluginApiException {
     logger.info("Purchase Payment for account {}", kbAccountId);
+    final PaymentTransactionInfoPlugin answered =
+        getAnsweredTransaction(kbPaymentId, kbTransactionId, context.getTenantId());
+    if (answered != null) {
+      return answered;
+    }
     final Map<String, String> mergedProperties = PluginProperties.toStringMap(properties);
     AdyenPaymentMethodsRecord paymentMethodRecord = null;
     try {
-      paymentMethodRecord = this.adyenDao.getPaymentMethod(kbPaymentMethodId.toString());
+      paymentMethodRecord =
+          this.adyenDao.getPaymentMethod(kbPaymentMethodId, context.getTenantId());
     } catch (SQLException e1) {
       logger.error("[purchasePayment]  encountered a database error ", e1);
       return AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
           TransactionType.PURCHASE, "[purchasePayment]  encountered a database error ");
     }
-    GatewayProcessor gatewayProcessor =
-        GatewayProcessorFactory.get(
-            adyenConfigurationHandler.getConfigurable(context.getTenantId()));
-    ProcessorInputDTO input =
-        gatewayProcessor.validateData(
-            adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
-    if (paymentMethodRecord.getIsRecurring() != 48) {
-      input.setPaymentMethod(PaymentMethod.RECURRING);
-    } else {
-      input.setPaymentMethod(PaymentMethod.ONE_TIME);
+    if (paymentMethodRecord == null) {
+      logger.error("[purchasePayment] Payment method {} not found", kbPaymentMethodId);
+      return AdyenPaymentTransactionInfoPlugin.cancelPaymentTransactionInfoPlugin(
+          TransactionType.PURCHASE, "Payment method not found");
     }
-    input.setAmount(amount);
-    input.setKbTransactionId(kbTransactionId.toString());
-    input.setCurrency(currency);
-    input.setKbAccountId(kbAccountId.toString());
     List<PluginProperty> formFields = new ArrayList<>();
     ProcessorOutputDTO outputDTO = null;
-    if (mergedProperties.get(IS_CHECKOUT) != null
-        && mergedProperties.get(IS_CHECKOUT).equals("true")) {
-      outputDTO = gatewayProcessor.processPayment(input);
-      formFields.add(
-          new PluginProperty(SESSION_DATA, outputDTO.getAdditionalData().get(SESSION_DATA), false));
-    } else {
-      input.setRecurringData(paymentMethodRecord.getRecurringDetailReference());
-      outputDTO = gatewayProcessor.processOneTimePayment(input);
+    try (GatewayProcessorRegistry.Lease lease =
+        adyenConfigurationHandler.acquireGatewayProcessor(context.getTenantId())) {
+      final GatewayProcessor gatewayProcessor = lease.getProcessor();
+      ProcessorInputDTO input =
+          gatewayProcessor.validateData(
+              adyenConfigurationHandler.getConfigurable(context.getTenantId()),
+              mergedProperties,
+              context.getTenantId(),
+              kbAccountId);
+      if (paymentMethodRecord.getIsRecurring() != 48) {
+        input.setPaymentMethod(PaymentMethod.RECURRING);
+      } else {
+        input.setPaymentMethod(PaymentMethod.ONE_TIME);
+      }
+      input.setAmount(amount);
+      input.setKbTransactionId(kbTransactionId.toString());
+      input.setCurrency(currency);
+      input.setKbAccountId(kbAccountId.toString());
+      if (mergedProperties.get(IS_CHECKOUT) != null
+          && mergedProperties.get(IS_CHECKOUT).equals("true")) {
+        outputDTO = gatewayProcessor.processPayment(input);
+        if (outputDTO.getAdditionalData() != null) {
+          formFields.add(
+              new PluginProperty(
+                  SESSION_DATA, outputDTO.getAdditionalData().get(SESSION_DATA), false));
+        }
+      } else {
+        input.setRecurringData(paymentMethodRecord.getRecurringDetailReference());
+        outputDTO = gatewayProcessor.processOneTimePayment(input);
+      }
     }
 
     AdyenResponsesRecord adyenRecord = null;
@@ -348,7 +375,7 @@ public class AdyenPaymentPluginApi
               TransactionType.PURCHASE,
               amount,
               currency,
-              PaymentPluginStatus.PENDING,
+              getStatus(outputDTO),
               outputDTO.getFirstPaymentReferenceId(),
               outputDTO,
               context.getTenantId());
@@ -364,9 +391,9 @@ public class AdyenPaymentPluginApi
         TransactionType.PURCHASE,
         amount,
         currency,
-        PaymentPluginStatus.PENDING,
-        null,
-        null,
+        getStatus(outputDTO),
+        outputDTO.getGatewayError(),
+        outputDTO.getGatewayErrorCode(),
         outputDTO.getFirstPaymentReferenceId(),
         outputDTO.getSecondPaymentReferenceId(),
         DateTime.now(),
@@ -384,6 +411,11 @@ public class AdyenPaymentPluginApi
       final CallContext context)
       throws PaymentPluginApiException {
     logger.info("Refund Payment for account {}", kbAccountId);
+    final PaymentTransactionInfoPlugin answered =
+        getAnsweredTransaction(kbPaymentId, kbTransactionId, context.getTenantId());
+    if (answered != null) {
+      return answered;
+    }
     AdyenResponsesRecord adyenRecord = null;
 
     try {
@@ -401,18 +433,22 @@ public class AdyenPaymentPluginApi
     }
 
     final Map<String, String> mergedProperties = PluginProperties.toStringMap(properties);
-    GatewayProcessor gatewayProcessor =
-        GatewayProcessorFactory.get(
-            adyenConfigurationHandler.getConfigurable(context.getTenantId()));
-
-    ProcessorInputDTO input =
-        gatewayProcessor.validateData(
-            adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
-    input.setPspReference(adyenRecord.getPspReference());
-
-    input.setKbTransactionId(kbTransactionId.toString());
-
-    ProcessorOutputDTO outputDTO = gatewayProcessor.voidPayment(input);
+    final ProcessorOutputDTO outputDTO;
+    try (GatewayProcessorRegistry.Lease lease =
+        adyenConfigurationHandler.acquireGatewayProcessor(context.getTenantId())) {
+      final GatewayProcessor gatewayProcessor = lease.getProcessor();
+      ProcessorInputDTO input =
+          gatewayProcessor.validateData(
+              adyenConfigurationHandler.getConfigurable(context.getTenantId()),
+              mergedProperties,
+              context.getTenantId(),
+              kbAccountId);
+      input.setPspReference(adyenRecord.getPspReference());
+
+      input.setKbTransactionId(kbTransactionId.toString());
+
+      outputDTO = gatewayProcessor.voidPayment(input);
+    }
 
     try {
       adyenRecord =
@@ -423,7 +459,7 @@ public class AdyenPaymentPluginApi
               TransactionType.VOID,
               null,
               null,
-              PaymentPluginStatus.PENDING,
+              getStatus(outputDTO),
               outputDTO.getFirstPaymentReferenceId(),
               outputDTO,
               context.getTenantId());
@@ -437,9 +473,9 @@ public class AdyenPaymentPluginApi
         TransactionType.VOID,
         null,
         null,
-        PaymentPluginStatus.PENDING,
-        null,
-        null,
+        getStatus(outputDTO),
+        outputDTO.getGatewayError(),
+        outputDTO.getGatewayErrorCode(),
         outputDTO.getFirstPaymentReferenceId(),
         outputDTO.getSecondPaymentReferenceId(),
         DateTime.now(),
@@ -473,6 +509,11 @@ public class AdyenPaymentPluginApi
       final CallContext context)
       throws PaymentPluginApiException {
     logger.info("Refund Payment for account {}", kbAccountId);
+    final PaymentTransactionInfoPlugin answered =
+        getAnsweredTransaction(kbPaymentId, kbTransactionId, context.getTenantId());
+    if (answered != null) {
+      return answered;
+    }
     AdyenResponsesRecord adyenRecord = null;
 
     try {
@@ -488,18 +529,22 @@ public class AdyenPaymentPluginApi
     }
 
     final Map<String, String> mergedProperties = PluginProperties.toStringMap(properties);
-    GatewayProcessor gatewayProcessor =
-        GatewayProcessorFactory.get(
-            adyenConfigurationHandler.getConfigurable(context.getTenantId()));
-
-    ProcessorInputDTO input =
-        gatewayProcessor.validateData(
-            adyenConfigurationHandler, mergedProperties, kbPaymentMethodId, kbAccountId);
-    input.setPspReference(adyenRecord.getPspReference());
-    input.setAmount(amount);
-    input.setKbTransactionId(kbTransactionId.toString());
-    input.setCurrency(currency);
-    ProcessorOutputDTO outputDTO = gatewayProcessor.refundPayment(input);
+    final ProcessorOutputDTO outputDTO;
+    try (GatewayProcessorRegistry.Lease lease =
+        adyenConfigurationHandler.acquireGatewayProcessor(context.getTenantId())) {
+      final GatewayProcessor gatewayProcessor = lease.getProcessor();
+      ProcessorInputDTO input =
+          gatewayProcessor.validateData(
+              adyenConfigurationHandler.getConfigurable(context.getTenantId()),
+              mergedProperties,
+              context.getTenantId(),
+              kbAccountId);
+      input.setPspReference(adyenRecord.getPspReference());
+      input.setAmount(amount);
+      input.setKbTransactionId(kbTransactionId.toString());
+      input.setCurrency(currency);
+      outputDTO = gatewayProcessor.refundPayment(input);
+    }
 
     try {
       adyenRecord =
@@ -510,7 +555,7 @@ public class AdyenPaymentPluginApi
               TransactionType.REFUND,
               amount,
               currency,
-              PaymentPluginStatus.PENDING,
+              getStatus(outputDTO),
               outputDTO.getFirstPaymentReferenceId(),
               outputDTO,
               context.getTenantId());
@@ -524,9 +569,9 @@ public class AdyenPaymentPluginApi
         TransactionType.REFUND,
         amount,
         currency,
-        PaymentPluginStatus.PENDING,
-        null,
-        null,
+        getStatus(outputDTO),
+        outputDTO.getGatewayError(),
+        outputDTO.getGatewayErrorCode(),
         outputDTO.getFirstPaymentReferenceId(),
         outputDTO.getSecondPaymentReferenceId(),
         DateTime.now(),
@@ -534,6 +579,48 @@ public class AdyenPaymentPluginApi
         null);
   }
 
+  /** PENDING until Adyen notifies the outcome, unless the request already failed */
+  private static PaymentPluginStatus getStatus(final ProcessorOutputDTO outputDTO) {
+    return outputDTO.getStatus() != null ? outputDTO.getStatus() : PaymentPluginStatus.PENDING;
+  }
+
+  /**
+   * Kill Bill retries a transaction with the same kbTransactionId, which is also the Adyen
+   * idempotency key: if Adyen already answered it, the stored response is returned without calling
+   * Adyen again.
+   */
+  @Nullable
+  private PaymentTransactionInfoPlugin getAnsweredTransaction(
+      final UUID kbPaymentId, final UUID kbTransactionId, final UUID kbTenantId) {
+    final AdyenResponsesRecord record;
+    try {
+      record = adyenDao.getAnsweredResponse(kbTransactionId, kbTenantId);
+    } catch (SQLException e) {
+      // Adyen deduplicates on the idempotency key anyway
+      logger.warn("Unable to look up previous responses of transaction {}", kbTransactionId, e);
+      return null;
+    }
+    if (record == null) {
+      return null;
+    }
+    logger.info("Transaction {} already answered by Adyen, not sending it again", kbTransactionId);
+    return new AdyenPaymentTransactionInfoPlugin(
+        record,
+        kbPaymentId,
+        kbTransactionId,
+        TransactionType.valueOf(record.getTransactionType()),
+        record.getAmount(),
+        record.getCurrency() != null ? Currency.valueOf(record.getCurrency()) : null,
+        PaymentPluginStatus.valueOf(record.getTransactionStatus()),
+        null,
+        null,
+        record.getSessionId(),
+        record.getReference(),
+        DateTime.parse(record.getCreatedDate().toString()),
+        DateTime.parse(record.getCreatedDate().toString()),
+        mapToPluginPropertyList(getAdditionalDataMap(record.getAdditionalData())));
+  }
+
   @Override
   public HostedPaymentPageFormDescriptor buildFormDescriptor(
       final UUID kbAccountId,
@@ -553,35 +640,152 @@ public class AdyenPaymentPluginApi
     logger.info("Notification recieved");
 
     try {
-      HMACValidator hmacValidator = new HMACValidator();
-      NotificationHandler notificationHandler = new NotificationHandler();
-      NotificationRequest notificationRequest =
-          notificationHandler.handleNotificationJson(notification);
-
-      NotificationRequestItem notificationItem = notificationRequest.getNotificationItems().get(0);
-
-      AdyenResponsesRecord record =
-          adyenDao.getResponseFromMerchantReference(notificationItem.getMerchantReference());
-      final CallContext tempContext =
-          new PluginCallContext(
-              AdyenActivator.PLUGIN_NAME,
-              clock.getUTCNow(),
-              UUID.fromString(record.getKbAccountId()),
-              UUID.fromString(record.getKbTenantId()));
-      if (hmacValidator.validateHMAC(
-          notificationItem,
-          this.adyenConfigurationHandler.getConfigurable(tempContext.getTenantId()).getHMACKey())) {
-
-        Payment payment =
-            this.killbillAPI
-                .getPaymentApi()
-                .getPayment(
-                    UUID.fromString(record.getKbPaymentId()),
-                    false,
-                    false,
-                    properties,
-                    tempContext);
+      handleNotification(notification, properties);
+    } catch (Exception e) {
+      logger.error("{}", e.getMessage(), e);
+    }
+    return new PluginGatewayNotification("[accepted]");
+  }
+
+  /**
+   * Whether every item of the notification has a signature which the tenants of its merchant
+   * account reject. Cheap enough to be checked before the notification is stored, it does not do
+   * any I/O. Notifications which cannot be parsed, or for unknown merchant accounts, are not
+   * rejected here.
+   */
+  public boolean isRejected(final String notification) {
+    final List<NotificationRequestItem> items;
+    try {
+      items = AdyenNotificationParser.parse(notification);
+    } catch (final IOException | RuntimeException e) {
+      return false;
+    }
+    if (items.isEmpty()) {
+      return false;
+    }
+    for (final NotificationRequestItem item : items) {
+      if (!Boolean.FALSE.equals(
+          adyenConfigurationHandler.getHmacVerifierRegistry().verifyByMerchantAccount(item))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Applies an Adyen notification to the plugin tables. Unlike {@link #processNotification}, errors
+   * are propagated so that the notification queue can retry it.
+   *
+   * <p>Every item of the batch is applied: the responses are looked up with a single query and the
+   * plugin tables are updated in a single transaction. If the payment of some items is not found,
+   * the other items are applied and the notification fails, so that it is retried.
+   */
+  public void handleNotification(
+      final String notification, final Iterable<PluginProperty> properties)
+      throws PaymentPluginApiException {
+    try {
+      final List<NotificationRequestItem> notificationItems =
+          AdyenNotificationParser.parse(notification);
+      if (notificationItems.isEmpty()) {
+        logger.warn("Notification without items");
+        return;
+      }
+      // Items with a signature the tenants of their merchant account reject, and redeliveries of
+      // items applied recently for one of the tenants accepting it, are dropped without any query
+      final AdyenHmacVerifierRegistry hmacVerifierRegistry =
+          adyenConfigurationHandler.getHmacVerifierRegistry();
+      // Tenants accepting the signature of each item, by identity like the recurring references
+      final Map<NotificationRequestItem, Set<UUID>> itemTenants = new IdentityHashMap<>();
+      final List<NotificationRequestItem> items = new ArrayList<>();
+      for (final NotificationRequestItem item : notificationItems) {
+        final Set<UUID> tenants = hmacVerifierRegistry.getVerifyingTenants(item);
+        if (tenants != null && tenants.isEmpty()) {
+          logger.error("HMAC Key is not valid");
+        } else if (tenants != null && adyenDao.isNotificationApplied(item, tenants)) {
+          metrics.increment(AdyenMetrics.NOTIFICATION_DUPLICATES_TOTAL, "layer", "cache");
+        } else {
+          items.add(item);
+          if (tenants != null) {
+            itemTenants.put(item, tenants);
+          }
+        }
+      }
+      if (items.isEmpty()) {
+        logger.info("No notification item left to apply");
+        return;
+      }
 
+      // The merchant reference comes from the notification: the responses are only looked up
+      // among the tenants accepting the signature
+      final Map<String, AdyenResponsesRecord> records =
+          new HashMap<>(getResponsesFromMerchantReferences(items, itemTenants));
+      final List<NotificationRequestItem> undiscoveredItems = new ArrayList<>();
+      for (final NotificationRequestItem item : items) {
+        if (!records.containsKey(item.getMerchantReference())) {
+          undiscoveredItems.add(item);
+        }
+      }
+      final Set<String> unknownMerchantReferences = new LinkedHashSet<>();
+      if (!undiscoveredItems.isEmpty()) {
+        // No tenant was seen with their merchant account yet (e.g. after a restart), or their
+        // payment is of another tenant sharing it: the tenants of the payments are candidates,
+        // trusted once their key accepts the signature
+        final Set<String> merchantReferences = new LinkedHashSet<>();
+        for (final NotificationRequestItem item : undiscoveredItems) {
+          merchantReferences.add(item.getMerchantReference());
+        }
+        final Map<String, Set<UUID>> candidates =
+            adyenDao.getTenantsFromMerchantReferences(merchantReferences);
+        final List<NotificationRequestItem> discoveredItems = new ArrayList<>();
+        for (final NotificationRequestItem item : undiscoveredItems) {
+          final Set<UUID> tenants = new HashSet<>();
+          for (final UUID kbTenantId :
+              candidates.getOrDefault(item.getMerchantReference(), ImmutableSet.of())) {
+            if (adyenConfigurationHandler.getHmacVerifier(kbTenantId).verify(item)) {
+              tenants.add(kbTenantId);
+            }
+          }
+          if (!tenants.isEmpty()) {
+            itemTenants.put(item, tenants);
+            discoveredItems.add(item);
+          } else if (candidates.containsKey(item.getMerchantReference())) {
+            logger.error("HMAC Key is not valid");
+            itemTenants.remove(item);
+          } else {
+            // The notification may have overtaken the payment call which creates the row
+            unknownMerchantReferences.add(item.getMerchantReference());
+            itemTenants.remove(item);
+          }
+        }
+        records.putAll(getResponsesFromMerchantReferences(discoveredItems, itemTenants));
+      }
+
+      final List<NotificationRequestItem> validItems = new ArrayList<>(items.size());
+      for (final NotificationRequestItem notificationItem : items) {
+        final Set<UUID> tenants = itemTenants.get(notificationItem);
+        final AdyenResponsesRecord record = records.get(notificationItem.getMerchantReference());
+        // The merchant account may be shared: the payment must be of a tenant accepting the item
+        if (tenants != null
+            && record != null
+            && tenants.contains(UUID.fromString(record.getKbTenantId()))) {
+          validItems.add(notificationItem);
+        } else if (tenants != null && record != null) {
+          logger.error("HMAC Key is not valid");
+        }
+      }
+
+      // Redeliveries the cache missed (e.g. after a restart) are recognized on the unique key
+      // before any Kill Bill call
+      final List<NotificationRequestItem> newItems = new ArrayList<>(validItems);
+      newItems.removeAll(adyenDao.getAppliedNotifications(validItems, records));
+      int duplicates = validItems.size() - newItems.size();
+
+      final Map<String, ProcessorOutputDTO> responseUpdates = new LinkedHashMap<>();
+      // NotificationRequestItem has no equals, the items are keyed by identity
+      final Map<NotificationRequestItem, RecurringDetailReference> recurringDetailReferences =
+          new IdentityHashMap<>();
+      for (final NotificationRequestItem notificationItem : newItems) {
+        final AdyenResponsesRecord record = records.get(notificationItem.getMerchantReference());
         ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
         outputDTO.setPspReferenceCode(notificationItem.getPspReference());
         if (notificationItem.isSuccess()) {
@@ -589,32 +793,79 @@ public class AdyenPaymentPluginApi
         } else {
           outputDTO.setStatus(PaymentPluginStatus.ERROR);
         }
-        this.adyenDao.updateResponse(
-            UUID.fromString(record.getKbPaymentId()),
-            outputDTO,
-            UUID.fromString(record.getKbTenantId()));
-        this.adyenDao.addNotification(
-            UUID.fromString(record.getKbAccountId()),
-            UUID.fromString(record.getKbPaymentId()),
-            UUID.fromString(record.getKbPaymentTransactionId()),
-            notificationItem,
-            UUID.fromString(record.getKbTenantId()));
-
-        if (notificationItem.getAdditionalData().get(RECURRING_DATA) != null) {
-
-          this.adyenDao.updateRecurringDetailsPaymentMethod(
-              payment.getPaymentMethodId(),
-              UUID.fromString(record.getKbTenantId()),
-              notificationItem.getAdditionalData().get(RECURRING_DATA));
+        // Later items of the same transaction win, as if they were applied one by one
+        responseUpdates.put(notificationItem.getMerchantReference(), outputDTO);
+
+        final String recurringData =
+            notificationItem.getAdditionalData() != null
+                ? notificationItem.getAdditionalData().get(RECURRING_DATA)
+                : null;
+        if (recurringData != null) {
+          // Only needed to find the payment method, skip the Kill Bill call otherwise
+          final CallContext tempContext =
+              new PluginCallContext(
+                  AdyenActivator.PLUGIN_NAME,
+                  clock.getUTCNow(),
+                  UUID.fromString(record.getKbAccountId()),
+                  UUID.fromString(record.getKbTenantId()));
+          Payment payment =
+              this.killbillAPI
+                  .getPaymentApi()
+                  .getPayment(
+                      UUID.fromString(record.getKbPaymentId()),
+                      false,
+                      false,
+                      properties,
+                      tempContext);
+          recurringDetailReferences.put(
+              notificationItem,
+              new RecurringDetailReference(
+                  UUID.fromString(record.getKbTenantId()),
+                  payment.getPaymentMethodId(),
+                  recurringData));
         }
+      }
 
-      } else {
-        logger.error("HMAC Key is not valid");
+      if (!newItems.isEmpty()) {
+        // Kill Bill calls are done above, so the transaction only spans the plugin tables. Items
+        // applied concurrently in the meantime are skipped, with their recurring references.
+        duplicates +=
+            newItems.size()
+                - this.adyenDao
+                    .applyNotifications(
+                        newItems, records, responseUpdates, recurringDetailReferences)
+                    .size();
       }
+      for (int i = 0; i < duplicates; i++) {
+        metrics.increment(AdyenMetrics.NOTIFICATION_DUPLICATES_TOTAL, "layer", "database");
+      }
+      if (!unknownMerchantReferences.isEmpty()) {
+        // Fail the notification so that the queue retries it: the items applied above are
+        // acknowledged as duplicates then, and the others are dropped after the last attempt
+        throw new PaymentPluginApiException(
+            INTERNAL, "No payment found for merchant references " + unknownMerchantReferences);
+      }
+    } catch (PaymentPluginApiException e) {
+      throw e;
     } catch (Exception e) {
-      logger.error("{}", e.getMessage(), e);
+      throw new PaymentPluginApiException("Unable to process Adyen notification", e);
     }
-    return new PluginGatewayNotification("[accepted]");
+  }
+
+  /** Responses of the merchant references of the items, among the tenants accepting them */
+  private Map<String, AdyenResponsesRecord> getResponsesFromMerchantReferences(
+      final List<NotificationRequestItem> items,
+      final Map<NotificationRequestItem, Set<UUID>> itemTenants)
+      throws SQLException {
+    final Set<String> merchantReferences = new LinkedHashSet<>();
+    final Set<UUID> tenants = new HashSet<>();
+    for (final NotificationRequestItem item : items) {
+      if (itemTenants.containsKey(item)) {
+        merchantReferences.add(item.getMerchantReference());
+        tenants.addAll(itemTenants.get(item));
+      }
+    }
+    return adyenDao.getResponsesFromMerchantReferences(merchantReferences, tenants);
   }
 
   public Map<String, String> getAdditionalDataMap(String additionalData) {
@@ -622,8 +873,7 @@ public class AdyenPaymentPluginApi
       return Collections.emptyMap();
     }
     try {
-      return objectMapper.readValue(additionalData, Map.class);
-
+      return AdyenAdditionalDataCodec.read(additionalData);
     } catch (Exception e) {
       logger.error("", e);
     }
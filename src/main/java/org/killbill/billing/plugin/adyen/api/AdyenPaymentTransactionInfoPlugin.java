@@ -31,7 +31,7 @@ import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
-import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.AdyenAdditionalDataCodec;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
 import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.billing.plugin.api.payment.PluginPaymentTransactionInfoPlugin;
@@ -45,8 +45,8 @@ public class AdyenPaymentTransactionInfoPlugin extends PluginPaymentTransactionI
 
   public static AdyenPaymentTransactionInfoPlugin build(
       final AdyenResponsesRecord AdyenResponsesRecord) {
-    final Map<?, ?> additionalData =
-        AdyenDao.mapFromAdditionalDataString(AdyenResponsesRecord.getAdditionalData());
+    final Map<String, String> additionalData =
+        AdyenAdditionalDataCodec.read(AdyenResponsesRecord.getAdditionalData());
 
     final String firstPaymentReferenceId = AdyenResponsesRecord.getPspReference();
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.google.common.collect.ImmutableMap;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.EnumMap;
+import java.util.Map;
+import org.killbill.billing.catalog.api.Currency;
+
+/**
+ * Conversion of Kill Bill amounts to the minor units Adyen expects (e.g. cents for USD, yen for
+ * JPY, fils for KWD). Adyen follows ISO 4217, except for a few currencies (e.g. ISK amounts have
+ * two decimals for Adyen, none in ISO 4217).
+ */
+public final class AdyenAmounts {
+
+  private static final int DEFAULT_EXPONENT = 2;
+
+  // Currencies for which Adyen does not use the ISO 4217 exponent, see
+  // https://docs.adyen.com/development-resources/currency-codes
+  private static final Map<Currency, Integer> ADYEN_EXPONENTS =
+      ImmutableMap.of(
+          Currency.CLP, 2,
+          Currency.CVE, 0,
+          Currency.IDR, 0,
+          Currency.ISK, 2);
+
+  // Resolved once since conversions happen on every payment
+  private static final Map<Currency, Integer> EXPONENTS = new EnumMap<>(Currency.class);
+
+  static {
+    for (final Currency currency : Currency.values()) {
+      final Integer adyenExponent = ADYEN_EXPONENTS.get(currency);
+      EXPONENTS.put(currency, adyenExponent != null ? adyenExponent : isoExponent(currency));
+    }
+  }
+
+  private AdyenAmounts() {}
+
+  public static int getExponent(final Currency currency) {
+    return EXPONENTS.get(currency);
+  }
+
+  /**
+   * Amount in minor units of {@code currency}, rounded half up when {@code amount} has more
+   * decimals than the currency (e.g. 10.005 USD is 1001 cents).
+   *
+   * @throws ArithmeticException if the amount does not fit in a long
+   */
+  public static long toMinorUnits(final Currency currency, final BigDecimal amount) {
+    final int exponent = EXPONENTS.get(currency);
+    // setScale returns the amount itself when it already has the currency scale, and the unscaled
+    // value of a compact BigDecimal is read without going through a BigInteger
+    return amount
+        .setScale(exponent, RoundingMode.HALF_UP)
+        .scaleByPowerOfTen(exponent)
+        .longValueExact();
+  }
+
+  private static int isoExponent(final Currency currency) {
+    try {
+      final int digits = java.util.Currency.getInstance(currency.name()).getDefaultFractionDigits();
+      // -1 for pseudo currencies, such as gold (XAU)
+      return digits < 0 ? 0 : digits;
+    } catch (final IllegalArgumentException e) {
+      // Not known to this JVM (e.g. withdrawn currency)
+      return DEFAULT_EXPONENT;
+    }
+  }
+}
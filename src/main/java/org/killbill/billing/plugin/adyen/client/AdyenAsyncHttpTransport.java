@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.Config;
+import com.adyen.httpclient.HTTPClientException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.Nullable;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.killbill.billing.plugin.adyen.client.exceptions.RequestRejectedException;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+
+/**
+ * Non-blocking counterpart of {@link AdyenHttpTransport}, on the Apache HttpClient I/O reactor: a
+ * handful of reactor threads serve every in-flight request, so callers can pipeline many Adyen
+ * calls without a thread per call. It honors the same timeouts and pool sizes, shares the {@code
+ * maxConcurrentRequests} bulkhead of the tenant's blocking transport, and is only started on first
+ * use. Having to wait for a permit, a request is rejected right away rather than blocking the
+ * caller.
+ */
+public class AdyenAsyncHttpTransport implements Closeable {
+
+  private final AdyenConfigProperties adyenConfigProperties;
+  private final AdyenBulkhead bulkhead;
+  @Nullable private CloseableHttpAsyncClient httpClient;
+  private boolean closed;
+
+  public AdyenAsyncHttpTransport(final AdyenConfigProperties adyenConfigProperties) {
+    this(adyenConfigProperties, new AdyenBulkhead(adyenConfigProperties));
+  }
+
+  AdyenAsyncHttpTransport(
+      final AdyenConfigProperties adyenConfigProperties, final AdyenBulkhead bulkhead) {
+    this.adyenConfigProperties = adyenConfigProperties;
+    this.bulkhead = bulkhead;
+  }
+
+  /**
+   * Posts {@code json} to {@code endpoint}. The future fails with an {@link HTTPClientException}
+   * on a non 2xx response, as the blocking transport does, or with an {@link IOException}, e.g. a
+   * {@link RequestRejectedException} when the bulkhead is full.
+   */
+  public CompletableFuture<String> post(
+      final String endpoint,
+      final String json,
+      final Config config,
+      @Nullable final String idempotencyKey) {
+    final CompletableFuture<String> future = new CompletableFuture<>();
+    final SimpleRequestBuilder requestBuilder;
+    try {
+      requestBuilder = SimpleRequestBuilder.post(new URI(endpoint));
+    } catch (final URISyntaxException e) {
+      future.completeExceptionally(new IOException("Invalid Adyen endpoint " + endpoint, e));
+      return future;
+    }
+    for (final Map.Entry<String, String> header :
+        AdyenHttpHeaders.requestHeaders(config, true, idempotencyKey).entrySet()) {
+      requestBuilder.setHeader(header.getKey(), header.getValue());
+    }
+    final SimpleHttpRequest request =
+        requestBuilder.setBody(json, ContentType.APPLICATION_JSON).build();
+
+    final CloseableHttpAsyncClient client;
+    try {
+      client = client();
+      bulkhead.tryAcquire();
+    } catch (final IOException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    try {
+      client.execute(
+          request,
+          new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(final SimpleHttpResponse response) {
+              bulkhead.release();
+              if (response.getCode() < 200 || response.getCode() >= 300) {
+                future.completeExceptionally(
+                    new HTTPClientException(
+                        response.getCode(),
+                        "HTTP Exception",
+                        AdyenHttpHeaders.responseHeaders(response.getHeaders()),
+                        response.getBodyText()));
+              } else {
+                future.complete(response.getBodyText());
+              }
+            }
+
+            @Override
+            public void failed(final Exception e) {
+              bulkhead.release();
+              future.completeExceptionally(
+                  e instanceof IOException ? e : new IOException("Adyen request failed", e));
+            }
+
+            @Override
+            public void cancelled() {
+              bulkhead.release();
+              future.completeExceptionally(new CancellationException("Adyen request cancelled"));
+            }
+          });
+    } catch (final RuntimeException e) {
+      // Not submitted (e.g. the client is shutting down), no callback releases the permit
+      bulkhead.release();
+      future.completeExceptionally(new IOException("Adyen request failed", e));
+    }
+    return future;
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (httpClient != null) {
+      httpClient.close(CloseMode.GRACEFUL);
+      httpClient = null;
+    }
+  }
+
+  private synchronized CloseableHttpAsyncClient client() throws IOException {
+    if (closed) {
+      throw new IOException("Adyen transport closed");
+    }
+    if (httpClient == null) {
+      final Timeout connectTimeout =
+          Timeout.ofMilliseconds(adyenConfigProperties.getConnectTimeoutMillis());
+      final Timeout readTimeout =
+          Timeout.ofMilliseconds(adyenConfigProperties.getReadTimeoutMillis());
+      final TimeValue keepAlive =
+          TimeValue.ofMilliseconds(adyenConfigProperties.getKeepAliveMillis());
+      final HttpAsyncClientBuilder httpClientBuilder =
+          HttpAsyncClients.custom()
+              .setConnectionManager(
+                  PoolingAsyncClientConnectionManagerBuilder.create()
+                      .setMaxConnTotal(adyenConfigProperties.getMaxConnections())
+                      .setMaxConnPerRoute(adyenConfigProperties.getMaxConnectionsPerRoute())
+                      .build())
+              .setIOReactorConfig(IOReactorConfig.custom().setSoTimeout(readTimeout).build())
+              .setDefaultRequestConfig(
+                  RequestConfig.custom()
+                      .setConnectTimeout(connectTimeout)
+                      .setConnectionRequestTimeout(connectTimeout)
+                      .setResponseTimeout(readTimeout)
+                      .setConnectionKeepAlive(keepAlive)
+                      .build())
+              // Same connection semantics, and pool sizing, as the blocking transport
+              .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1)
+              .disableCookieManagement();
+      if (TimeValue.isPositive(keepAlive)) {
+        httpClientBuilder.evictIdleConnections(keepAlive);
+      }
+      httpClient = httpClientBuilder.build();
+      httpClient.start();
+    }
+    return httpClient;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.killbill.billing.plugin.adyen.client.exceptions.RequestRejectedException;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+
+/**
+ * The {@code maxConcurrentRequests} limit of a tenant, shared by its blocking and non-blocking
+ * transports, along with the number of requests in flight and rejected. Every permit acquired must
+ * be released once the response is read or the request failed.
+ */
+class AdyenBulkhead {
+
+  private final long acquireTimeoutMillis;
+  @Nullable private final Semaphore permits;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+
+  AdyenBulkhead(final AdyenConfigProperties adyenConfigProperties) {
+    this.acquireTimeoutMillis = adyenConfigProperties.getConnectTimeoutMillis();
+    final int maxConcurrentRequests = adyenConfigProperties.getMaxConcurrentRequests();
+    this.permits = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests) : null;
+  }
+
+  /** Waits up to the connect timeout for a permit */
+  void acquire() throws IOException {
+    if (permits != null) {
+      try {
+        if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw reject();
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for an Adyen connection");
+      }
+    }
+    inFlight.incrementAndGet();
+  }
+
+  /** Takes a permit without waiting, for the callers which must not block */
+  void tryAcquire() throws RequestRejectedException {
+    if (permits != null && !permits.tryAcquire()) {
+      throw reject();
+    }
+    inFlight.incrementAndGet();
+  }
+
+  void release() {
+    inFlight.decrementAndGet();
+    if (permits != null) {
+      permits.release();
+    }
+  }
+
+  int getInFlight() {
+    return inFlight.get();
+  }
+
+  long getRejected() {
+    return rejected.get();
+  }
+
+  private RequestRejectedException reject() {
+    rejected.incrementAndGet();
+    return new RequestRejectedException("Too many concurrent requests to Adyen");
+  }
+}
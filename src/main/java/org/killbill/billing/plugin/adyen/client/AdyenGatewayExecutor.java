@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.service.exception.ApiException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.apache.hc.core5.util.Timeout;
+import org.killbill.billing.plugin.adyen.client.exceptions.RequestRejectedException;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the blocking Adyen calls with a time budget, on the calling thread when there is none.
+ *
+ * <p>With {@code requestTimeoutMillis}, every call runs on a worker thread, and the HTTP transport
+ * bounds each of its waits (connection lease, connect, every read of the response) by the time left
+ * when the request starts: a call fails with a timeout shortly after its budget is spent rather
+ * than after the read timeout, but this is not a hard deadline, as a response trickling in keeps
+ * being read. Workers are never abandoned: the caller waits for its worker to finish, so that the
+ * connection and bulkhead permit are released before a retry resends the same idempotency key.
+ *
+ * <p>There are at most {@code maxConcurrentRequests} workers (the pool size when unlimited), a call
+ * waiting up to the connect timeout for one before being rejected. They are virtual threads when
+ * {@code virtualThreads} is enabled and the JVM supports them (Java 21+), so that the worker does
+ * not cost a second platform thread per call. Callers which must not block use {@link
+ * AsyncGatewayProcessor} instead.
+ */
+public class AdyenGatewayExecutor implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenGatewayExecutor.class);
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+  private static final String THREAD_NAME = "adyen-gateway-";
+
+  // Deadline, in System.nanoTime(), of the call running on the worker thread
+  private static final ThreadLocal<Long> DEADLINE_NANOS = new ThreadLocal<>();
+
+  @Nullable private static final ThreadFactory VIRTUAL_THREAD_FACTORY = newVirtualThreadFactory();
+
+  @Nullable private final ThreadPoolExecutor executor;
+  private final long timeoutMillis;
+
+  public AdyenGatewayExecutor(final AdyenConfigProperties adyenConfigProperties) {
+    this.timeoutMillis = adyenConfigProperties.getRequestTimeoutMillis();
+    this.executor = timeoutMillis > 0 ? newExecutor(adyenConfigProperties) : null;
+  }
+
+  public <T> T call(final GatewayCall<T> call) throws IOException, ApiException {
+    if (executor == null) {
+      return call.call();
+    }
+
+    final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    final Future<T> future;
+    try {
+      future =
+          executor.submit(
+              () -> {
+                DEADLINE_NANOS.set(deadlineNanos);
+                try {
+                  return call.call();
+                } finally {
+                  DEADLINE_NANOS.remove();
+                }
+              });
+    } catch (final RejectedExecutionException e) {
+      if (e.getCause() instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for an Adyen worker");
+      }
+      throw new RequestRejectedException("Too many concurrent requests to Adyen");
+    }
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      // The worker ends on its own, within the time budget
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for Adyen");
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof ApiException) {
+        throw (ApiException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * @return the time left to the deadline of the call running on this thread, null if it has none
+   * @throws SocketTimeoutException when the deadline has passed
+   */
+  @Nullable
+  static Timeout timeLeft() throws SocketTimeoutException {
+    final Long deadlineNanos = DEADLINE_NANOS.get();
+    if (deadlineNanos == null) {
+      return null;
+    }
+    final long leftMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    if (leftMillis <= 0) {
+      throw new SocketTimeoutException("Adyen call ran out of time before being sent");
+    }
+    return Timeout.ofMilliseconds(leftMillis);
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private static ThreadPoolExecutor newExecutor(final AdyenConfigProperties adyenConfigProperties) {
+    final int maxWorkers =
+        adyenConfigProperties.getMaxConcurrentRequests() > 0
+            ? adyenConfigProperties.getMaxConcurrentRequests()
+            : adyenConfigProperties.getMaxConnections();
+    final long acquireTimeoutMillis = adyenConfigProperties.getConnectTimeoutMillis();
+    final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            maxWorkers,
+            maxWorkers,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            newThreadFactory(adyenConfigProperties.isVirtualThreads()),
+            (task, pool) -> {
+              // Every worker is busy: wait for one to take the task, like the transport bulkhead
+              try {
+                if (pool.isShutdown()
+                    || !pool.getQueue().offer(task, acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                  throw new RejectedExecutionException("No Adyen worker available");
+                }
+              } catch (final InterruptedException e) {
+                throw new RejectedExecutionException(e);
+              }
+            });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ThreadFactory newThreadFactory(final boolean virtualThreads) {
+    if (virtualThreads) {
+      if (VIRTUAL_THREAD_FACTORY != null) {
+        return VIRTUAL_THREAD_FACTORY;
+      }
+      logger.warn("Virtual threads are not supported by this JVM, using platform threads");
+    }
+    return new ThreadFactoryBuilder().setNameFormat(THREAD_NAME + "%d").setDaemon(true).build();
+  }
+
+  // The plugin is built for older JDKs, hence the lookup
+  @Nullable
+  private static ThreadFactory newVirtualThreadFactory() {
+    try {
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      final Method name = builderClass.getMethod("name", String.class, long.class);
+      final Method factory = builderClass.getMethod("factory");
+      return (ThreadFactory)
+          factory.invoke(name.invoke(ofVirtual.invoke(null), THREAD_NAME + "virtual-", 0L));
+    } catch (final ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  @FunctionalInterface
+  public interface GatewayCall<T> {
+
+    T call() throws IOException, ApiException;
+  }
+}
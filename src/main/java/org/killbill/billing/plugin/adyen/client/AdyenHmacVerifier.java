@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.google.common.io.BaseEncoding;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Locale;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Checks the HMAC signature of notification items against one key. Same result as {@link
+ * HMACValidator#validateHMAC}, except that the key is decoded once and that each thread reuses its
+ * {@link Mac}.
+ */
+public final class AdyenHmacVerifier {
+
+  private static final String HMAC_SIGNATURE = "hmacSignature";
+
+  // Only used to build the signed data, it is stateless
+  private static final HMACValidator HMAC_VALIDATOR = new HMACValidator();
+
+  private final SecretKeySpec key;
+  private final ThreadLocal<Mac> macs;
+
+  /** @param hexKey HMAC key of the webhook, as shown by the Adyen Customer Area */
+  public AdyenHmacVerifier(final String hexKey) {
+    if (hexKey == null || hexKey.isEmpty()) {
+      throw new IllegalArgumentException("Missing HMAC key");
+    }
+    this.key =
+        new SecretKeySpec(
+            BaseEncoding.base16().decode(hexKey.toUpperCase(Locale.ROOT)),
+            HMACValidator.HMAC_SHA256_ALGORITHM);
+    this.macs = ThreadLocal.withInitial(this::newMac);
+    // Fail now rather than on the first notification
+    newMac();
+  }
+
+  public boolean verify(final NotificationRequestItem item) {
+    final String signature =
+        item.getAdditionalData() != null ? item.getAdditionalData().get(HMAC_SIGNATURE) : null;
+    if (signature == null || signature.isEmpty()) {
+      return false;
+    }
+    final byte[] expected;
+    try {
+      expected = Base64.getDecoder().decode(signature);
+    } catch (final IllegalArgumentException e) {
+      return false;
+    }
+    // doFinal resets the Mac for the next item
+    final byte[] actual =
+        macs.get().doFinal(HMAC_VALIDATOR.getDataToSign(item).getBytes(StandardCharsets.UTF_8));
+    return MessageDigest.isEqual(actual, expected);
+  }
+
+  private Mac newMac() {
+    try {
+      final Mac mac = Mac.getInstance(HMACValidator.HMAC_SHA256_ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (final GeneralSecurityException e) {
+      throw new IllegalArgumentException("Invalid HMAC key", e);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+
+/**
+ * Keeps one {@link AdyenHmacVerifier} per tenant. As in {@link GatewayProcessorRegistry}, an entry
+ * is only reused while it was built from the tenant's current {@link AdyenConfigProperties}.
+ *
+ * <p>Notifications do not say which tenant they are for, it is only known once the payment is
+ * found. {@link #verifyByMerchantAccount} lets callers reject forged items before that, using the
+ * verifiers of the tenants already seen with the same merchant account.
+ */
+public class AdyenHmacVerifierRegistry {
+
+  // ConcurrentHashMap does not accept null keys, the default configuration is stored under this one
+  private static final UUID DEFAULT_TENANT = new UUID(0L, 0L);
+
+  private final ConcurrentMap<UUID, Entry> verifiers = new ConcurrentHashMap<>();
+
+  public AdyenHmacVerifier get(
+      @Nullable final UUID kbTenantId, final AdyenConfigProperties adyenConfigProperties) {
+    final UUID key = kbTenantId == null ? DEFAULT_TENANT : kbTenantId;
+    final Entry current = verifiers.get(key);
+    if (current != null && current.configProperties == adyenConfigProperties) {
+      return current.verifier;
+    }
+    final Entry entry =
+        verifiers.compute(
+            key,
+            (tenantId, existing) -> {
+              if (existing != null && existing.configProperties == adyenConfigProperties) {
+                return existing;
+              }
+              return new Entry(
+                  adyenConfigProperties,
+                  new AdyenHmacVerifier(adyenConfigProperties.getHMACKey()));
+            });
+    return entry.verifier;
+  }
+
+  /**
+   * @return whether a tenant with the merchant account of the item accepts its signature, or null
+   *     if no tenant with this merchant account was seen yet
+   */
+  @Nullable
+  public Boolean verifyByMerchantAccount(final NotificationRequestItem item) {
+    final Set<UUID> tenants = getVerifyingTenants(item);
+    return tenants == null ? null : !tenants.isEmpty();
+  }
+
+  /**
+   * @return the tenants with the merchant account of the item which accept its signature, or null
+   *     if no tenant with this merchant account was seen yet
+   */
+  @Nullable
+  public Set<UUID> getVerifyingTenants(final NotificationRequestItem item) {
+    Set<UUID> tenants = null;
+    for (final Map.Entry<UUID, Entry> entry : verifiers.entrySet()) {
+      final String merchantAccount = entry.getValue().merchantAccount;
+      if (merchantAccount == null || !merchantAccount.equals(item.getMerchantAccountCode())) {
+        continue;
+      }
+      if (tenants == null) {
+        tenants = new HashSet<>();
+      }
+      if (entry.getValue().verifier.verify(item)) {
+        tenants.add(entry.getKey());
+      }
+    }
+    return tenants;
+  }
+
+  public void invalidate(@Nullable final UUID kbTenantId) {
+    verifiers.remove(kbTenantId == null ? DEFAULT_TENANT : kbTenantId);
+  }
+
+  private static final class Entry {
+
+    private final AdyenConfigProperties configProperties;
+    private final String merchantAccount;
+    private final AdyenHmacVerifier verifier;
+
+    private Entry(final AdyenConfigProperties configProperties, final AdyenHmacVerifier verifier) {
+      this.configProperties = configProperties;
+      this.merchantAccount = configProperties.getMerchantAccount();
+      this.verifier = verifier;
+    }
+  }
+}
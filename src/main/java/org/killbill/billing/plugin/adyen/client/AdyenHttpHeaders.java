@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.Client;
+import com.adyen.Config;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+
+/** Adyen request and response headers, for both the blocking and non-blocking transports */
+final class AdyenHttpHeaders {
+
+  private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+  private static final String API_KEY_HEADER = "x-api-key";
+  private static final String USER_AGENT_SUFFIX = Client.LIB_NAME + "/" + Client.LIB_VERSION;
+
+  private AdyenHttpHeaders() {}
+
+  /**
+   * @param isApiKeyRequired whether the Basic credentials of the configuration may not replace a
+   *     missing API key
+   */
+  static Map<String, String> requestHeaders(
+      final Config config, final boolean isApiKeyRequired, @Nullable final String idempotencyKey) {
+    final Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Accept", ContentType.APPLICATION_JSON.getMimeType());
+    headers.put("Accept-Charset", StandardCharsets.UTF_8.name());
+    headers.put("User-Agent", userAgent(config));
+    if (config.getApiKey() != null && !config.getApiKey().isEmpty()) {
+      headers.put(API_KEY_HEADER, config.getApiKey());
+    } else if (!isApiKeyRequired && config.getUsername() != null) {
+      final String credentials = config.getUsername() + ":" + config.getPassword();
+      headers.put(
+          "Authorization",
+          "Basic "
+              + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+    }
+    if (idempotencyKey != null) {
+      headers.put(IDEMPOTENCY_KEY, idempotencyKey);
+    }
+    return headers;
+  }
+
+  static Map<String, List<String>> responseHeaders(final Header[] responseHeaders) {
+    final Map<String, List<String>> headers = new HashMap<>();
+    for (final Header header : responseHeaders) {
+      headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+    }
+    return headers;
+  }
+
+  private static String userAgent(final Config config) {
+    if (config.getApplicationName() == null || config.getApplicationName().isEmpty()) {
+      return USER_AGENT_SUFFIX;
+    }
+    return config.getApplicationName() + " " + USER_AGENT_SUFFIX;
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.Config;
+import com.adyen.constants.ApiConstants;
+import com.adyen.httpclient.ClientInterface;
+import com.adyen.httpclient.HTTPClientException;
+import com.adyen.model.RequestOptions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+
+/**
+ * Adyen {@link ClientInterface} backed by a pooled, keep-alive Apache HttpClient.
+ *
+ * <p>The default Adyen transport opens a new HTTP client (and TLS session) for every request. This
+ * one keeps connections to the Checkout endpoints alive across payments, honors the timeouts and
+ * pool sizes of the tenant configuration and optionally caps the number of in-flight requests, so
+ * that a slow gateway cannot hold every Kill Bill payment thread.
+ */
+public class AdyenHttpTransport implements ClientInterface, Closeable {
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  private final RequestConfig requestConfig;
+  private final AdyenBulkhead bulkhead;
+
+  public AdyenHttpTransport(final AdyenConfigProperties adyenConfigProperties) {
+    this(adyenConfigProperties, new AdyenBulkhead(adyenConfigProperties));
+  }
+
+  AdyenHttpTransport(
+      final AdyenConfigProperties adyenConfigProperties, final AdyenBulkhead bulkhead) {
+    final Timeout connectTimeout =
+        Timeout.ofMilliseconds(adyenConfigProperties.getConnectTimeoutMillis());
+    final Timeout readTimeout =
+        Timeout.ofMilliseconds(adyenConfigProperties.getReadTimeoutMillis());
+    final TimeValue keepAlive =
+        TimeValue.ofMilliseconds(adyenConfigProperties.getKeepAliveMillis());
+
+    this.connectionManager =
+        PoolingHttpClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(adyenConfigProperties.getMaxConnections())
+            .setMaxConnPerRoute(adyenConfigProperties.getMaxConnectionsPerRoute())
+            .setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(readTimeout).build())
+            .build();
+    this.requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setConnectionRequestTimeout(connectTimeout)
+            .setResponseTimeout(readTimeout)
+            .setConnectionKeepAlive(keepAlive)
+            .build();
+    final HttpClientBuilder httpClientBuilder =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .disableCookieManagement();
+    if (TimeValue.isPositive(keepAlive)) {
+      // Close the connections left idle for longer than keepAliveMillis, instead of recycling
+      // busy ones after a fixed time to live
+      httpClientBuilder.evictIdleConnections(keepAlive);
+    }
+    this.httpClient = httpClientBuilder.build();
+    this.bulkhead = bulkhead;
+  }
+
+  @Override
+  public String request(final String endpoint, final String json, final Config config)
+      throws IOException, HTTPClientException {
+    return request(endpoint, json, config, false);
+  }
+
+  @Override
+  public String request(
+      final String endpoint, final String json, final Config config, final boolean isApiKeyRequired)
+      throws IOException, HTTPClientException {
+    return request(endpoint, json, config, isApiKeyRequired, null);
+  }
+
+  @Override
+  public String request(
+      final String endpoint,
+      final String json,
+      final Config config,
+      final boolean isApiKeyRequired,
+      final RequestOptions requestOptions)
+      throws IOException, HTTPClientException {
+    return request(
+        endpoint, json, config, isApiKeyRequired, requestOptions, ApiConstants.HttpMethod.POST);
+  }
+
+  @Override
+  public String request(
+      final String endpoint,
+      final String json,
+      final Config config,
+      final boolean isApiKeyRequired,
+      final RequestOptions requestOptions,
+      final ApiConstants.HttpMethod httpMethod)
+      throws IOException, HTTPClientException {
+    return request(endpoint, json, config, isApiKeyRequired, requestOptions, httpMethod, null);
+  }
+
+  @Override
+  public String request(
+      final String endpoint,
+      final String json,
+      final Config config,
+      final boolean isApiKeyRequired,
+      final RequestOptions requestOptions,
+      final ApiConstants.HttpMethod httpMethod,
+      final Map<String, String> params)
+      throws IOException, HTTPClientException {
+    final HttpUriRequestBase request =
+        new HttpUriRequestBase(httpMethod.name(), toUri(endpoint, params));
+    for (final Map.Entry<String, String> header :
+        AdyenHttpHeaders.requestHeaders(
+                config,
+                isApiKeyRequired,
+                requestOptions == null ? null : requestOptions.getIdempotencyKey())
+            .entrySet()) {
+      request.setHeader(header.getKey(), header.getValue());
+    }
+    if (json != null) {
+      request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+    }
+
+    return execute(request);
+  }
+
+  public Stats getStats() {
+    final PoolStats poolStats = connectionManager.getTotalStats();
+    return new Stats(
+        poolStats.getLeased(),
+        poolStats.getPending(),
+        poolStats.getAvailable(),
+        poolStats.getMax(),
+        bulkhead.getInFlight(),
+        bulkhead.getRejected());
+  }
+
+  @Override
+  public void close() {
+    httpClient.close(CloseMode.GRACEFUL);
+  }
+
+  private String execute(final HttpUriRequestBase request)
+      throws IOException, HTTPClientException {
+    final Timeout timeLeft = AdyenGatewayExecutor.timeLeft();
+    if (timeLeft != null) {
+      request.setConfig(withTimeLeft(timeLeft));
+    }
+    bulkhead.acquire();
+    try {
+      final Response response =
+          httpClient.execute(
+              request,
+              httpResponse -> {
+                final Map<String, List<String>> headers =
+                    AdyenHttpHeaders.responseHeaders(httpResponse.getHeaders());
+                final String body =
+                    httpResponse.getEntity() == null
+                        ? null
+                        : EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8);
+                return new Response(httpResponse.getCode(), headers, body);
+              });
+      if (response.status < 200 || response.status >= 300) {
+        throw new HTTPClientException(
+            response.status, "HTTP Exception", response.headers, response.body);
+      }
+      return response.body;
+    } finally {
+      bulkhead.release();
+    }
+  }
+
+  /** Bounds the connection lease, connect and response timeouts by the time left to the call */
+  private RequestConfig withTimeLeft(final Timeout timeLeft) {
+    return RequestConfig.copy(requestConfig)
+        .setConnectionRequestTimeout(min(requestConfig.getConnectionRequestTimeout(), timeLeft))
+        .setConnectTimeout(min(requestConfig.getConnectTimeout(), timeLeft))
+        .setResponseTimeout(min(requestConfig.getResponseTimeout(), timeLeft))
+        .build();
+  }
+
+  private static Timeout min(final Timeout timeout, final Timeout timeLeft) {
+    return timeout == null || timeout.isDisabled() || timeLeft.compareTo(timeout) < 0
+        ? timeLeft
+        : timeout;
+  }
+
+  private static URI toUri(final String endpoint, @Nullable final Map<String, String> params)
+      throws IOException {
+    final StringBuilder uri = new StringBuilder(endpoint);
+    if (params != null && !params.isEmpty()) {
+      char separator = endpoint.indexOf('?') >= 0 ? '&' : '?';
+      for (final Map.Entry<String, String> param : params.entrySet()) {
+        uri.append(separator)
+            .append(URLEncoder.encode(param.getKey(), StandardCharsets.UTF_8.name()))
+            .append('=')
+            .append(URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8.name()));
+        separator = '&';
+      }
+    }
+    try {
+      return new URI(uri.toString());
+    } catch (final URISyntaxException e) {
+      throw new IOException("Invalid Adyen endpoint " + endpoint, e);
+    }
+  }
+
+  private static final class Response {
+
+    private final int status;
+    private final Map<String, List<String>> headers;
+    private final String body;
+
+    private Response(final int status, final Map<String, List<String>> headers, final String body) {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  /** Snapshot of the connection pool and concurrency limiter */
+  @Getter
+  @AllArgsConstructor
+  public static final class Stats {
+
+    private final int leased;
+    private final int pending;
+    private final int available;
+    private final int max;
+    private final int inFlight;
+    private final long rejected;
+
+    /** Fraction of the pool currently leased, between 0 and 1 */
+    public double getSaturation() {
+      return max == 0 ? 0 : (double) leased / max;
+    }
+  }
+}
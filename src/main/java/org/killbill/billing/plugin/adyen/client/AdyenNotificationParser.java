@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.NotificationHandler;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser of Adyen notification bodies, in place of {@link
+ * NotificationHandler#handleNotificationJson}, which binds the whole body with Gson.
+ *
+ * <p>Only the fields the plugin uses are read: psp, original and merchant references, merchant
+ * account, event code, success, reason, amount and additional data (stored with the notification,
+ * nested objects, arrays and nulls are skipped where the SDK rejects the whole body). The event
+ * date, payment method and operations are skipped and left null on the returned items.
+ */
+public final class AdyenNotificationParser {
+
+  // Thread safe, and caches the symbol tables of the field names across parsers
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private AdyenNotificationParser() {}
+
+  public static List<NotificationRequestItem> parse(final String json) throws IOException {
+    try (final JsonParser parser = JSON_FACTORY.createParser(json)) {
+      return parse(parser);
+    }
+  }
+
+  /** Reads the bytes as they come, e.g. from the request body */
+  public static List<NotificationRequestItem> parse(final InputStream json) throws IOException {
+    try (final JsonParser parser = JSON_FACTORY.createParser(json)) {
+      return parse(parser);
+    }
+  }
+
+  private static List<NotificationRequestItem> parse(final JsonParser parser) throws IOException {
+    final List<NotificationRequestItem> items = new ArrayList<>();
+    expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      final JsonToken value = parser.nextToken();
+      if ("notificationItems".equals(field) && value == JsonToken.START_ARRAY) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          parseContainer(parser, items);
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return items;
+  }
+
+  private static void parseContainer(
+      final JsonParser parser, final List<NotificationRequestItem> items) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      final JsonToken value = parser.nextToken();
+      if ("NotificationRequestItem".equals(field) && value == JsonToken.START_OBJECT) {
+        items.add(parseItem(parser));
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static NotificationRequestItem parseItem(final JsonParser parser) throws IOException {
+    final NotificationRequestItem item = new NotificationRequestItem();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      final JsonToken value = parser.nextToken();
+      switch (field) {
+        case "pspReference":
+          item.setPspReference(text(parser, value));
+          break;
+        case "originalReference":
+          item.setOriginalReference(text(parser, value));
+          break;
+        case "merchantReference":
+          item.setMerchantReference(text(parser, value));
+          break;
+        case "merchantAccountCode":
+          item.setMerchantAccountCode(text(parser, value));
+          break;
+        case "eventCode":
+          item.setEventCode(text(parser, value));
+          break;
+        case "reason":
+          item.setReason(text(parser, value));
+          break;
+        case "success":
+          // A string in the notifications, "true" or "false"
+          item.setSuccess(
+              value == JsonToken.VALUE_TRUE || Boolean.parseBoolean(text(parser, value)));
+          break;
+        case "amount":
+          item.setAmount(value == JsonToken.START_OBJECT ? parseAmount(parser) : null);
+          break;
+        case "additionalData":
+          item.setAdditionalData(
+              value == JsonToken.START_OBJECT ? parseAdditionalData(parser) : null);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return item;
+  }
+
+  private static Amount parseAmount(final JsonParser parser) throws IOException {
+    final Amount amount = new Amount();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      final JsonToken value = parser.nextToken();
+      if ("currency".equals(field)) {
+        amount.setCurrency(text(parser, value));
+      } else if ("value".equals(field) && value != JsonToken.VALUE_NULL) {
+        amount.setValue(parser.getValueAsLong());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return amount;
+  }
+
+  private static Map<String, String> parseAdditionalData(final JsonParser parser)
+      throws IOException {
+    final Map<String, String> additionalData = new HashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      final JsonToken value = parser.nextToken();
+      if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+        additionalData.put(field, parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return additionalData;
+  }
+
+  private static String text(final JsonParser parser, final JsonToken value) throws IOException {
+    if (value == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (!value.isScalarValue()) {
+      parser.skipChildren();
+      return null;
+    }
+    return parser.getText();
+  }
+
+  private static void expect(final JsonParser parser, final JsonToken actual, final JsonToken token)
+      throws JsonParseException {
+    if (actual != token) {
+      throw new JsonParseException(parser, "Expected " + token + " but got " + actual);
+    }
+  }
+}
@@ -25,10 +25,14 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.joda.time.LocalDate;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
 import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
-import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.client.exceptions.RequestRejectedException;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.api.PluginTenantContext;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.slf4j.Logger;
@@ -57,14 +61,26 @@ public class AdyenProcessorImpl implements GatewayProcessor {
               input.getKbTransactionId(),
               input.getKbAccountId(),
               input.getRecurringData());
-    } catch (IOException e) {
-      logger.error("IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
-    } catch (ApiException e) {
-
-      logger.error("API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+    } catch (IOException | ApiException e) {
+      return toFailedOutput(e);
     }
+    return toOutput(response);
+  }
+
+  @Override
+  public CompletableFuture<ProcessorOutputDTO> processOneTimePaymentAsync(ProcessorInputDTO input) {
+    return httpClient
+        .purchaseAsync(
+            input.getCurrency(),
+            input.getAmount(),
+            input.getKbTransactionId(),
+            input.getKbAccountId(),
+            input.getRecurringData())
+        .handle(
+            (response, failure) -> failure == null ? toOutput(response) : toFailedOutput(failure));
+  }
+
+  private static ProcessorOutputDTO toOutput(PaymentsResponse response) {
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
     if (response != null) {
       outputDTO.setFirstPaymentReferenceId(response.getPspReference());
@@ -86,15 +102,28 @@ public class AdyenProcessorImpl implements GatewayProcessor {
               input.getKbTransactionId(),
               input.getKbAccountId(),
               recurring);
-    } catch (IOException e) {
-      logger.error("IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
-    } catch (ApiException e) {
-
-      logger.error("API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+    } catch (IOException | ApiException e) {
+      return toFailedOutput(e);
     }
 
+    return toOutput(response);
+  }
+
+  @Override
+  public CompletableFuture<ProcessorOutputDTO> processPaymentAsync(ProcessorInputDTO input) {
+    boolean recurring = input.getPaymentMethod().toString().equals("RECURRING");
+    return httpClient
+        .checkoutsessionsAsync(
+            input.getCurrency(),
+            input.getAmount(),
+            input.getKbTransactionId(),
+            input.getKbAccountId(),
+            recurring)
+        .handle(
+            (response, failure) -> failure == null ? toOutput(response) : toFailedOutput(failure));
+  }
+
+  private static ProcessorOutputDTO toOutput(CreateCheckoutSessionResponse response) {
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
     if (response != null) {
       outputDTO.setFirstPaymentReferenceId(response.getId());
@@ -117,15 +146,26 @@ public class AdyenProcessorImpl implements GatewayProcessor {
               input.getAmount(),
               input.getKbTransactionId(),
               input.getPspReference());
-    } catch (IOException e) {
-      logger.error("IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
-    } catch (ApiException e) {
-
-      logger.error("API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+    } catch (IOException | ApiException e) {
+      return toFailedOutput(e);
     }
 
+    return toOutput(response);
+  }
+
+  @Override
+  public CompletableFuture<ProcessorOutputDTO> refundPaymentAsync(ProcessorInputDTO input) {
+    return httpClient
+        .refundAsync(
+            input.getCurrency(),
+            input.getAmount(),
+            input.getKbTransactionId(),
+            input.getPspReference())
+        .handle(
+            (response, failure) -> failure == null ? toOutput(response) : toFailedOutput(failure));
+  }
+
+  private static ProcessorOutputDTO toOutput(PaymentRefundResource response) {
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
     if (response != null) {
       outputDTO.setFirstPaymentReferenceId(response.getPspReference());
@@ -136,9 +176,9 @@ public class AdyenProcessorImpl implements GatewayProcessor {
 
   @Override
   public ProcessorInputDTO validateData(
-      AdyenConfigurationHandler AdyenConfigurationHandler,
+      AdyenConfigProperties adyenConfigProperties,
       Map<String, String> properties,
-      UUID context,
+      UUID kbTenantId,
       UUID kbAccountId) {
 
     ProcessorInputDTO inputDTO = new ProcessorInputDTO();
@@ -146,15 +186,14 @@ public class AdyenProcessorImpl implements GatewayProcessor {
     inputDTO.setPluginProperties(properties);
     // Read Configuration From Kill Bill
     Map<String, String> configurations = new HashMap<>();
-    if (AdyenConfigurationHandler.getConfigurable(context).getApiKey() == null
-        || AdyenConfigurationHandler.getConfigurable(context).getMerchantAccount() == null) {
+    if (adyenConfigProperties.getApiKey() == null
+        || adyenConfigProperties.getMerchantAccount() == null) {
       return null;
     }
-    configurations.put(
-        MERCHANT_ACCOUNT, AdyenConfigurationHandler.getConfigurable(context).getMerchantAccount());
-    configurations.put(API_KEY, AdyenConfigurationHandler.getConfigurable(context).getApiKey());
+    configurations.put(MERCHANT_ACCOUNT, adyenConfigProperties.getMerchantAccount());
+    configurations.put(API_KEY, adyenConfigProperties.getApiKey());
     inputDTO.setPluginConfiguration(configurations);
-    TenantContext tenantContext = new PluginTenantContext(kbAccountId, context);
+    TenantContext tenantContext = new PluginTenantContext(kbAccountId, kbTenantId);
     String localdate = LocalDate.now().toString("yyyyMMdd");
     inputDTO.setTenantContext(tenantContext);
     inputDTO.setCreatedDate(localdate);
@@ -162,20 +201,42 @@ public class AdyenProcessorImpl implements GatewayProcessor {
     return inputDTO;
   }
 
+  @Override
+  public AdyenHttpTransport.Stats getTransportStats() {
+    return httpClient.getTransportStats();
+  }
+
+  @Override
+  public void ping() throws IOException, ApiException {
+    httpClient.paymentMethods();
+  }
+
+  @Override
+  public void close() {
+    httpClient.close();
+  }
+
   @Override
   public ProcessorOutputDTO voidPayment(ProcessorInputDTO input) {
     PaymentReversalResource response = null;
     try {
       response = httpClient.reversal(input.getKbTransactionId(), input.getPspReference());
-    } catch (IOException e) {
-      logger.error("IO Exception{}", e.getMessage(), e);
-      e.printStackTrace();
-    } catch (ApiException e) {
-
-      logger.error("API Exception {} \n {}", e.getError(), e.getMessage(), e);
-      e.printStackTrace();
+    } catch (IOException | ApiException e) {
+      return toFailedOutput(e);
     }
 
+    return toOutput(response);
+  }
+
+  @Override
+  public CompletableFuture<ProcessorOutputDTO> voidPaymentAsync(ProcessorInputDTO input) {
+    return httpClient
+        .reversalAsync(input.getKbTransactionId(), input.getPspReference())
+        .handle(
+            (response, failure) -> failure == null ? toOutput(response) : toFailedOutput(failure));
+  }
+
+  private static ProcessorOutputDTO toOutput(PaymentReversalResource response) {
     ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
     if (response != null) {
       outputDTO.setFirstPaymentReferenceId(response.getPspReference());
@@ -183,4 +244,34 @@ public class AdyenProcessorImpl implements GatewayProcessor {
 
     return outputDTO;
   }
+
+  /**
+   * Output of a call Adyen did not answer successfully: CANCELED if the request was not sent,
+   * ERROR if Adyen refused it, UNDEFINED if the outcome is unknown (Kill Bill then checks the
+   * payment state later on).
+   */
+  private static ProcessorOutputDTO toFailedOutput(Throwable failure) {
+    Throwable cause =
+        failure instanceof CompletionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+    ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
+    outputDTO.setGatewayError(cause.getMessage());
+    if (cause instanceof RequestRejectedException) {
+      logger.warn("Adyen request not sent: {}", cause.getMessage());
+      outputDTO.setStatus(PaymentPluginStatus.CANCELED);
+    } else if (cause instanceof ApiException && !AdyenResiliencePolicy.isTransient(cause)) {
+      ApiException e = (ApiException) cause;
+      logger.error("API Exception {} \n {}", e.getError(), e.getMessage(), e);
+      outputDTO.setStatus(PaymentPluginStatus.ERROR);
+      if (e.getError() != null) {
+        outputDTO.setGatewayError(e.getError().getMessage());
+        outputDTO.setGatewayErrorCode(e.getError().getErrorCode());
+      }
+    } else {
+      logger.error("IO Exception{}", cause.getMessage(), cause);
+      outputDTO.setStatus(PaymentPluginStatus.UNDEFINED);
+    }
+    return outputDTO;
+  }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.service.exception.ApiException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.killbill.billing.plugin.adyen.client.AdyenGatewayExecutor.GatewayCall;
+import org.killbill.billing.plugin.adyen.client.exceptions.RequestRejectedException;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries and circuit breaker around the Adyen calls of a tenant.
+ *
+ * <p>Transient failures (I/O errors, 429 and 5xx responses) are retried a bounded number of times,
+ * with an exponential, jittered backoff. Retrying is safe since every request carries an
+ * idempotency key. After {@code circuitBreakerFailures} consecutive transient failures, calls are
+ * rejected without reaching Adyen for {@code circuitBreakerOpenMillis}; a single call is then let
+ * through, which closes the breaker on success or opens it again on failure, including unexpected
+ * ones (e.g. an unreadable response), which are counted but not retried. Calls rejected by the
+ * {@code maxConcurrentRequests} bulkhead were not sent, so they are neither retried nor counted.
+ * Together, this keeps an Adyen brownout from holding every payment thread and database connection
+ * of the node.
+ */
+public class AdyenResiliencePolicy {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenResiliencePolicy.class);
+
+  private enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final String tenant;
+  private final int maxRetries;
+  private final long backoffMillis;
+  private final int failureThreshold;
+  private final long openNanos;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAtNanos;
+
+  public AdyenResiliencePolicy(
+      final AdyenConfigProperties adyenConfigProperties, final String tenant) {
+    this.tenant = tenant;
+    this.maxRetries = Math.max(0, adyenConfigProperties.getMaxRetries());
+    this.backoffMillis = Math.max(0, adyenConfigProperties.getRetryBackoffMillis());
+    this.failureThreshold = adyenConfigProperties.getCircuitBreakerFailures();
+    this.openNanos =
+        TimeUnit.MILLISECONDS.toNanos(adyenConfigProperties.getCircuitBreakerOpenMillis());
+  }
+
+  /** Whether Adyen may succeed if the request is sent again */
+  public static boolean isTransient(final Throwable failure) {
+    if (failure instanceof RequestRejectedException) {
+      return false;
+    }
+    if (failure instanceof ApiException) {
+      final int statusCode = ((ApiException) failure).getStatusCode();
+      return statusCode == 429 || statusCode >= 500;
+    }
+    return failure instanceof IOException;
+  }
+
+  public <T> T call(final GatewayCall<T> call) throws IOException, ApiException {
+    for (int attempt = 0; ; attempt++) {
+      acquire();
+      try {
+        final T response = call.call();
+        onResponse();
+        return response;
+      } catch (final IOException | ApiException e) {
+        if (!onFailure(e) || attempt >= maxRetries) {
+          throw e;
+        }
+      } catch (final RuntimeException | Error e) {
+        // Must not keep the probe of a half open breaker
+        onFailure(e);
+        throw e;
+      }
+      try {
+        Thread.sleep(backoffMillis(attempt));
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to retry an Adyen call");
+      }
+    }
+  }
+
+  public <T> CompletableFuture<T> callAsync(final Supplier<CompletableFuture<T>> call) {
+    return callAsync(call, 0);
+  }
+
+  private <T> CompletableFuture<T> callAsync(
+      final Supplier<CompletableFuture<T>> call, final int attempt) {
+    try {
+      acquire();
+    } catch (final RequestRejectedException e) {
+      final CompletableFuture<T> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(new CompletionException(e));
+      return rejected;
+    }
+    final CompletableFuture<T> future;
+    try {
+      future = call.get();
+    } catch (final RuntimeException e) {
+      onFailure(e);
+      final CompletableFuture<T> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new CompletionException(e));
+      return failed;
+    }
+    return future
+        .handle(
+            (response, failure) -> {
+              if (failure == null) {
+                onResponse();
+                return CompletableFuture.completedFuture(response);
+              }
+              final Throwable cause =
+                  failure instanceof CompletionException && failure.getCause() != null
+                      ? failure.getCause()
+                      : failure;
+              if (!onFailure(cause) || attempt >= maxRetries) {
+                final CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(failure);
+                return failed;
+              }
+              return CompletableFuture.runAsync(
+                      () -> {},
+                      CompletableFuture.delayedExecutor(
+                          backoffMillis(attempt), TimeUnit.MILLISECONDS))
+                  .thenCompose(ignored -> callAsync(call, attempt + 1));
+            })
+        .thenCompose(Function.identity());
+  }
+
+  private long backoffMillis(final int attempt) {
+    final long delay = backoffMillis << Math.min(attempt, 16);
+    // Half fixed, half random, so that callers failing together do not retry together
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  private synchronized void acquire() throws RequestRejectedException {
+    if (state == State.CLOSED) {
+      return;
+    }
+    if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openNanos) {
+      // Let a single call probe Adyen
+      state = State.HALF_OPEN;
+      return;
+    }
+    throw new RequestRejectedException("Adyen circuit breaker open for tenant " + tenant);
+  }
+
+  /** Adyen answered, even with a non transient error */
+  private synchronized void onResponse() {
+    if (state != State.CLOSED) {
+      logger.info("Adyen circuit breaker closed for tenant {}", tenant);
+    }
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  /** @return whether the call may be retried */
+  private synchronized boolean onFailure(final Throwable failure) {
+    if (failure instanceof RequestRejectedException) {
+      // Not sent (bulkhead full): says nothing about Adyen, but must release the probe, leaving
+      // the next call free to probe
+      if (state == State.HALF_OPEN) {
+        state = State.OPEN;
+      }
+      return false;
+    }
+    final boolean unexpected = !(failure instanceof IOException || failure instanceof ApiException);
+    if (!unexpected && !isTransient(failure)) {
+      onResponse();
+      return false;
+    }
+    consecutiveFailures++;
+    if (failureThreshold > 0
+        && (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+      if (state != State.OPEN) {
+        logger.warn(
+            "Adyen circuit breaker opened for tenant {} after {} failures",
+            tenant,
+            consecutiveFailures,
+            failure);
+      }
+      state = State.OPEN;
+      openedAtNanos = System.nanoTime();
+      return false;
+    }
+    return !unexpected;
+  }
+}
@@ -17,12 +17,14 @@
 package org.killbill.billing.plugin.adyen.client;
 
 import com.adyen.model.checkout.CreateCheckoutSessionResponse;
+import com.adyen.model.checkout.PaymentMethodsResponse;
 import com.adyen.model.checkout.PaymentRefundResource;
 import com.adyen.model.checkout.PaymentReversalResource;
 import com.adyen.model.checkout.PaymentsResponse;
 import com.adyen.service.exception.ApiException;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
 import org.killbill.billing.catalog.api.Currency;
 
 public interface AdyenSDKClient {
@@ -35,13 +37,26 @@ public interface AdyenSDKClient {
       boolean isRecurring)
       throws IOException, ApiException;
 
+  public CompletableFuture<CreateCheckoutSessionResponse> checkoutsessionsAsync(
+      Currency currency,
+      BigDecimal kbAmount,
+      String transactionId,
+      String kbAccountId,
+      boolean isRecurring);
+
   public PaymentReversalResource reversal(String transactionId, String paymentPspReference)
       throws IOException, ApiException;
 
+  public CompletableFuture<PaymentReversalResource> reversalAsync(
+      String transactionId, String paymentPspReference);
+
   public PaymentRefundResource refund(
       Currency currency, BigDecimal kbAmount, String transactionId, String paymentPspReference)
       throws IOException, ApiException;
 
+  public CompletableFuture<PaymentRefundResource> refundAsync(
+      Currency currency, BigDecimal kbAmount, String transactionId, String paymentPspReference);
+
   public PaymentsResponse purchase(
       Currency currency,
       BigDecimal kbAmount,
@@ -49,4 +64,14 @@ public interface AdyenSDKClient {
       String kbAccountId,
       String recurringDetailReference)
       throws IOException, ApiException;
+
+  public CompletableFuture<PaymentsResponse> purchaseAsync(
+      Currency currency,
+      BigDecimal kbAmount,
+      String transactionId,
+      String kbAccountId,
+      String recurringDetailReference);
+
+  /** Payment methods available to the merchant account, a cheap authenticated call */
+  public PaymentMethodsResponse paymentMethods() throws IOException, ApiException;
 }
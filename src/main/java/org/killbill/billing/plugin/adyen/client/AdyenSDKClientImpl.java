@@ -17,7 +17,11 @@
 package org.killbill.billing.plugin.adyen.client;
 
 import com.adyen.Client;
+import com.adyen.Config;
 import com.adyen.enums.Environment;
+import com.adyen.httpclient.HTTPClientException;
+import com.adyen.model.ApiError;
+import com.adyen.model.RequestOptions;
 import com.adyen.model.Amount;
 import com.adyen.model.checkout.CreateCheckoutSessionRequest;
 import com.adyen.model.checkout.CreateCheckoutSessionRequest.RecurringProcessingModelEnum;
@@ -25,29 +29,79 @@ import com.adyen.model.checkout.CreateCheckoutSessionRequest.ShopperInteractionE
 import com.adyen.model.checkout.CreateCheckoutSessionResponse;
 import com.adyen.model.checkout.CreatePaymentRefundRequest;
 import com.adyen.model.checkout.CreatePaymentReversalRequest;
+import com.adyen.model.checkout.PaymentMethodsRequest;
+import com.adyen.model.checkout.PaymentMethodsResponse;
 import com.adyen.model.checkout.PaymentRefundResource;
 import com.adyen.model.checkout.PaymentReversalResource;
 import com.adyen.model.checkout.PaymentsRequest;
 import com.adyen.model.checkout.PaymentsResponse;
 import com.adyen.service.Checkout;
 import com.adyen.service.exception.ApiException;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.Closeable;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javax.annotation.Nullable;
 import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.plugin.adyen.client.AdyenGatewayExecutor.GatewayCall;
+import org.killbill.billing.plugin.adyen.client.exceptions.RequestRejectedException;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
 
-public class AdyenSDKClientImpl implements AdyenSDKClient {
+public class AdyenSDKClientImpl implements AdyenSDKClient, Closeable {
 
   private final AdyenConfigProperties adyenConfigProperties;
+  private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+  private final AdyenHttpTransport transport;
+  private final AdyenAsyncHttpTransport asyncTransport;
+  private final AdyenGatewayExecutor executor;
+  private final AdyenResiliencePolicy resilience;
   private final Checkout checkout;
+  private final Config config;
+  private final String tenant;
+  private final AdyenMetrics metrics = AdyenMetrics.getInstance();
 
   public AdyenSDKClientImpl(AdyenConfigProperties adyenConfigProperties) {
+    this(adyenConfigProperties, null);
+  }
+
+  public AdyenSDKClientImpl(
+      AdyenConfigProperties adyenConfigProperties, @Nullable UUID kbTenantId) {
     this.adyenConfigProperties = adyenConfigProperties;
+    this.tenant = kbTenantId == null ? "default" : kbTenantId.toString();
     Client client =
         new Client(
             adyenConfigProperties.getApiKey(),
             Environment.valueOf(adyenConfigProperties.getEnviroment()));
+    if (adyenConfigProperties.getCheckoutUrl() != null) {
+      client.getConfig().setCheckoutEndpoint(adyenConfigProperties.getCheckoutUrl());
+    }
+    // Both transports count against the same maxConcurrentRequests limit
+    final AdyenBulkhead bulkhead = new AdyenBulkhead(adyenConfigProperties);
+    this.transport = new AdyenHttpTransport(adyenConfigProperties, bulkhead);
+    client.setHttpClient(transport);
     this.checkout = new Checkout(client);
+    this.config = client.getConfig();
+    this.asyncTransport = new AdyenAsyncHttpTransport(adyenConfigProperties, bulkhead);
+    this.executor = new AdyenGatewayExecutor(adyenConfigProperties);
+    this.resilience = new AdyenResiliencePolicy(adyenConfigProperties, tenant);
+  }
+
+  public AdyenHttpTransport.Stats getTransportStats() {
+    return transport.getStats();
+  }
+
+  @Override
+  public void close() {
+    executor.close();
+    transport.close();
+    asyncTransport.close();
   }
 
   @Override
@@ -58,8 +112,129 @@ public class AdyenSDKClientImpl implements AdyenSDKClient {
       String kbAccountId,
       boolean isRecurrent)
       throws IOException, ApiException {
+    CreateCheckoutSessionRequest checkoutSession =
+        sessionRequest(currency, kbAmount, kbTransactionId, kbAccountId, isRecurrent);
+    return send(
+        "sessions",
+        () ->
+            post(
+                "/sessions",
+                checkoutSession,
+                CreateCheckoutSessionResponse.class,
+                kbTransactionId));
+  }
+
+  @Override
+  public CompletableFuture<CreateCheckoutSessionResponse> checkoutsessionsAsync(
+      Currency currency,
+      BigDecimal kbAmount,
+      String kbTransactionId,
+      String kbAccountId,
+      boolean isRecurrent) {
+    return sendAsync(
+        "sessions",
+        "/sessions",
+        sessionRequest(currency, kbAmount, kbTransactionId, kbAccountId, isRecurrent),
+        CreateCheckoutSessionResponse.class,
+        kbTransactionId);
+  }
+
+  @Override
+  public PaymentReversalResource reversal(String transactionId, String paymentPspReference)
+      throws IOException, ApiException {
+    CreatePaymentReversalRequest paymentReversalRequest = reversalRequest(transactionId);
+    return send(
+        "reversals",
+        () ->
+            post(
+                "/payments/" + paymentPspReference + "/reversals",
+                paymentReversalRequest,
+                PaymentReversalResource.class,
+                transactionId));
+  }
+
+  @Override
+  public CompletableFuture<PaymentReversalResource> reversalAsync(
+      String transactionId, String paymentPspReference) {
+    return sendAsync(
+        "reversals",
+        "/payments/" + paymentPspReference + "/reversals",
+        reversalRequest(transactionId),
+        PaymentReversalResource.class,
+        transactionId);
+  }
+
+  public PaymentRefundResource refund(
+      Currency currency, BigDecimal kbAmount, String transactionId, String paymentPspReference)
+      throws IOException, ApiException {
+    CreatePaymentRefundRequest paymentRefundRequest =
+        refundRequest(currency, kbAmount, transactionId);
+    return send(
+        "refunds",
+        () ->
+            post(
+                "/payments/" + paymentPspReference + "/refunds",
+                paymentRefundRequest,
+                PaymentRefundResource.class,
+                transactionId));
+  }
+
+  @Override
+  public CompletableFuture<PaymentRefundResource> refundAsync(
+      Currency currency, BigDecimal kbAmount, String transactionId, String paymentPspReference) {
+    return sendAsync(
+        "refunds",
+        "/payments/" + paymentPspReference + "/refunds",
+        refundRequest(currency, kbAmount, transactionId),
+        PaymentRefundResource.class,
+        transactionId);
+  }
+
+  @Override
+  public PaymentsResponse purchase(
+      Currency currency,
+      BigDecimal kbAmount,
+      String transactionId,
+      String kbAccountId,
+      String recurringDetailReference)
+      throws IOException, ApiException {
+    PaymentsRequest paymentsRequest =
+        paymentsRequest(currency, kbAmount, transactionId, kbAccountId, recurringDetailReference);
+    return send(
+        "payments",
+        () -> post("/payments", paymentsRequest, PaymentsResponse.class, transactionId));
+  }
 
-    Amount amount = new Amount().currency(currency.name()).value(convertToMinorUnit(kbAmount));
+  @Override
+  public CompletableFuture<PaymentsResponse> purchaseAsync(
+      Currency currency,
+      BigDecimal kbAmount,
+      String transactionId,
+      String kbAccountId,
+      String recurringDetailReference) {
+    return sendAsync(
+        "payments",
+        "/payments",
+        paymentsRequest(currency, kbAmount, transactionId, kbAccountId, recurringDetailReference),
+        PaymentsResponse.class,
+        transactionId);
+  }
+
+  @Override
+  public PaymentMethodsResponse paymentMethods() throws IOException, ApiException {
+    PaymentMethodsRequest paymentMethodsRequest = new PaymentMethodsRequest();
+    paymentMethodsRequest.setMerchantAccount(adyenConfigProperties.getMerchantAccount());
+    return send("paymentMethods", () -> checkout.paymentMethods(paymentMethodsRequest));
+  }
+
+  private CreateCheckoutSessionRequest sessionRequest(
+      Currency currency,
+      BigDecimal kbAmount,
+      String kbTransactionId,
+      String kbAccountId,
+      boolean isRecurrent) {
+    Amount amount =
+        new Amount().currency(currency.name()).value(AdyenAmounts.toMinorUnits(currency, kbAmount));
     CreateCheckoutSessionRequest checkoutSession = new CreateCheckoutSessionRequest();
     checkoutSession.merchantAccount(adyenConfigProperties.getMerchantAccount());
     checkoutSession.setChannel(CreateCheckoutSessionRequest.ChannelEnum.WEB);
@@ -75,44 +250,36 @@ public class AdyenSDKClientImpl implements AdyenSDKClient {
       checkoutSession.shopperInteraction(ShopperInteractionEnum.ECOMMERCE);
       checkoutSession.storePaymentMethod(true);
     }
-
-    return checkout.sessions(checkoutSession);
+    return checkoutSession;
   }
 
-  @Override
-  public PaymentReversalResource reversal(String transactionId, String paymentPspReference)
-      throws IOException, ApiException {
-
+  private CreatePaymentReversalRequest reversalRequest(String transactionId) {
     CreatePaymentReversalRequest paymentReversalRequest = new CreatePaymentReversalRequest();
-
     paymentReversalRequest.setMerchantAccount(adyenConfigProperties.getMerchantAccount());
     paymentReversalRequest.setReference(transactionId);
-
-    return checkout.paymentsReversals(paymentPspReference, paymentReversalRequest);
+    return paymentReversalRequest;
   }
 
-  public PaymentRefundResource refund(
-      Currency currency, BigDecimal kbAmount, String transactionId, String paymentPspReference)
-      throws IOException, ApiException {
-
+  private CreatePaymentRefundRequest refundRequest(
+      Currency currency, BigDecimal kbAmount, String transactionId) {
     CreatePaymentRefundRequest paymentRefundRequest = new CreatePaymentRefundRequest();
-    Amount amount = new Amount().currency(currency.name()).value(convertToMinorUnit(kbAmount));
+    Amount amount =
+        new Amount().currency(currency.name()).value(AdyenAmounts.toMinorUnits(currency, kbAmount));
     paymentRefundRequest.setAmount(amount);
     paymentRefundRequest.setMerchantAccount(adyenConfigProperties.getMerchantAccount());
     paymentRefundRequest.setReference(transactionId);
-    return checkout.paymentsRefunds(paymentPspReference, paymentRefundRequest);
+    return paymentRefundRequest;
   }
 
-  @Override
-  public PaymentsResponse purchase(
+  private PaymentsRequest paymentsRequest(
       Currency currency,
       BigDecimal kbAmount,
       String transactionId,
       String kbAccountId,
-      String recurringDetailReference)
-      throws IOException, ApiException {
+      String recurringDetailReference) {
     PaymentsRequest paymentsRequest = new PaymentsRequest();
-    Amount amount = new Amount().currency(currency.name()).value(convertToMinorUnit(kbAmount));
+    Amount amount =
+        new Amount().currency(currency.name()).value(AdyenAmounts.toMinorUnits(currency, kbAmount));
     paymentsRequest.setAmount(amount);
     paymentsRequest.setReference(transactionId);
 
@@ -126,14 +293,118 @@ public class AdyenSDKClientImpl implements AdyenSDKClient {
 
     paymentsRequest.setCaptureDelayHours(
         Integer.valueOf(adyenConfigProperties.getCaptureDelayHours()));
+    return paymentsRequest;
+  }
 
-    return checkout.payments(paymentsRequest);
+  /** Sends the call, with the retries and circuit breaker of the tenant */
+  private <T> T send(final String operation, final GatewayCall<T> call)
+      throws IOException, ApiException {
+    return resilience.call(() -> timed(operation, call));
   }
 
-  private Long convertToMinorUnit(BigDecimal amount) {
+  private <T> CompletableFuture<T> sendAsync(
+      final String operation,
+      final String path,
+      final Object request,
+      final Class<T> type,
+      final String idempotencyKey) {
+    return resilience.callAsync(() -> timedAsync(operation, path, request, type, idempotencyKey));
+  }
 
-    String minorUnit = amount.toString().replace(".", "");
+  private <T> T timed(final String operation, final GatewayCall<T> call)
+      throws IOException, ApiException {
+    final long startNanos = System.nanoTime();
+    String outcome = AdyenMetrics.OUTCOME_ERROR;
+    try {
+      final T response = executor.call(call);
+      outcome = AdyenMetrics.OUTCOME_SUCCESS;
+      return response;
+    } catch (final ApiException e) {
+      outcome = AdyenMetrics.OUTCOME_API_EXCEPTION;
+      throw e;
+    } catch (final RequestRejectedException e) {
+      outcome = AdyenMetrics.OUTCOME_REJECTED;
+      throw e;
+    } catch (final IOException e) {
+      outcome = AdyenMetrics.OUTCOME_IO_EXCEPTION;
+      throw e;
+    } finally {
+      metrics.recordGatewayRequest(operation, tenant, outcome, System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Posts {@code request} to the Checkout {@code path}. The SDK only takes {@link RequestOptions}
+   * on some operations, hence this path, with the SDK serialization and error mapping.
+   */
+  private <T> T post(
+      final String path, final Object request, final Class<T> type, final String idempotencyKey)
+      throws IOException, ApiException {
+    final RequestOptions requestOptions = new RequestOptions();
+    requestOptions.setIdempotencyKey(idempotencyKey);
+    try {
+      return GSON.fromJson(
+          transport.request(endpoint(path), GSON.toJson(request), config, true, requestOptions),
+          type);
+    } catch (final HTTPClientException e) {
+      throw toApiException(e);
+    }
+  }
 
-    return Long.valueOf(minorUnit);
+  private String endpoint(final String path) {
+    return config.getCheckoutEndpoint() + "/" + Client.CHECKOUT_API_VERSION + path;
+  }
+
+  /**
+   * Posts {@code request} to the Checkout {@code path} without blocking, with the serialization
+   * and error mapping of the SDK: a non 2xx response fails the future with an {@link
+   * ApiException}, wrapped in a {@link CompletionException} like any other failure.
+   */
+  private <T> CompletableFuture<T> timedAsync(
+      final String operation,
+      final String path,
+      final Object request,
+      final Class<T> type,
+      final String idempotencyKey) {
+    final long startNanos = System.nanoTime();
+    return asyncTransport
+        .post(endpoint(path), GSON.toJson(request), config, idempotencyKey)
+        .handle(
+            (json, failure) -> {
+              final Throwable cause =
+                  failure instanceof CompletionException && failure.getCause() != null
+                      ? failure.getCause()
+                      : failure;
+              String outcome = AdyenMetrics.OUTCOME_ERROR;
+              try {
+                if (cause == null) {
+                  final T response = GSON.fromJson(json, type);
+                  outcome = AdyenMetrics.OUTCOME_SUCCESS;
+                  return response;
+                } else if (cause instanceof HTTPClientException) {
+                  outcome = AdyenMetrics.OUTCOME_API_EXCEPTION;
+                  throw new CompletionException(toApiException((HTTPClientException) cause));
+                } else if (cause instanceof RequestRejectedException) {
+                  outcome = AdyenMetrics.OUTCOME_REJECTED;
+                } else if (cause instanceof IOException) {
+                  outcome = AdyenMetrics.OUTCOME_IO_EXCEPTION;
+                }
+                throw new CompletionException(cause);
+              } finally {
+                metrics.recordGatewayRequest(
+                    operation, tenant, outcome, System.nanoTime() - startNanos);
+              }
+            });
+  }
+
+  private static ApiException toApiException(final HTTPClientException e) {
+    final ApiException apiException =
+        new ApiException(e.getMessage(), e.getCode(), e.getResponseHeaders());
+    try {
+      apiException.setError(GSON.fromJson(e.getResponseBody(), ApiError.class));
+    } catch (final JsonParseException ignored) {
+      return new ApiException("Invalid response or an invalid X-API-Key key was used", e.getCode());
+    }
+    return apiException;
   }
 }
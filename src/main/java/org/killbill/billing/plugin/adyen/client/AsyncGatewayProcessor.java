@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.util.concurrent.CompletableFuture;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+
+/**
+ * Non-blocking variant of the {@link GatewayProcessor} operations, for callers pipelining many
+ * Adyen requests (e.g. bulk or reconciliation jobs). The futures complete on the HTTP client
+ * threads, with the same output as the blocking operations, including on failure.
+ */
+public interface AsyncGatewayProcessor {
+
+  public CompletableFuture<ProcessorOutputDTO> processOneTimePaymentAsync(ProcessorInputDTO input);
+
+  public CompletableFuture<ProcessorOutputDTO> processPaymentAsync(ProcessorInputDTO input);
+
+  public CompletableFuture<ProcessorOutputDTO> refundPaymentAsync(ProcessorInputDTO input);
+
+  public CompletableFuture<ProcessorOutputDTO> voidPaymentAsync(ProcessorInputDTO input);
+}
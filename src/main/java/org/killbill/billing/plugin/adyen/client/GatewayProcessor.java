@@ -16,13 +16,16 @@
  */
 package org.killbill.billing.plugin.adyen.client;
 
+import com.adyen.service.exception.ApiException;
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Map;
 import java.util.UUID;
 import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
 import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
-import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 
-public interface GatewayProcessor {
+public interface GatewayProcessor extends AsyncGatewayProcessor, Closeable {
 
   public ProcessorOutputDTO processOneTimePayment(ProcessorInputDTO input);
 
@@ -33,8 +36,17 @@ public interface GatewayProcessor {
   public ProcessorOutputDTO voidPayment(ProcessorInputDTO input);
 
   public ProcessorInputDTO validateData(
-      AdyenConfigurationHandler adyenConfigurationHandler,
+      AdyenConfigProperties adyenConfigProperties,
       Map<String, String> properties,
-      UUID context,
+      UUID kbTenantId,
       UUID kbAccountId);
+
+  public AdyenHttpTransport.Stats getTransportStats();
+
+  /** Round trip to Adyen with the tenant credentials, for health checks */
+  public void ping() throws IOException, ApiException;
+
+  /** Releases the pooled connections held by this processor */
+  @Override
+  public void close();
 }
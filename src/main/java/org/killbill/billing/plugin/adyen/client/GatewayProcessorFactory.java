@@ -16,13 +16,20 @@
  */
 package org.killbill.billing.plugin.adyen.client;
 
+import java.util.UUID;
+import javax.annotation.Nullable;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 
 public class GatewayProcessorFactory {
   private GatewayProcessorFactory() {}
 
   public static GatewayProcessor get(AdyenConfigProperties adyenConfigProperties) {
-    AdyenSDKClientImpl httpClient = new AdyenSDKClientImpl(adyenConfigProperties);
+    return get(adyenConfigProperties, null);
+  }
+
+  public static GatewayProcessor get(
+      AdyenConfigProperties adyenConfigProperties, @Nullable UUID kbTenantId) {
+    AdyenSDKClientImpl httpClient = new AdyenSDKClientImpl(adyenConfigProperties, kbTenantId);
 
     return new AdyenProcessorImpl(httpClient);
   }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import javax.annotation.Nullable;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps one {@link GatewayProcessor} (and therefore one Adyen {@code Client} / {@code Checkout}
+ * pair) per tenant, so that payments reuse the same HTTP client instead of building a new one for
+ * every transaction.
+ *
+ * <p>An entry is only reused while it was built from the tenant's current {@link
+ * AdyenConfigProperties} instance: re-uploading the tenant configuration creates a new instance,
+ * which forces a rebuild even if {@link #invalidate(UUID)} was not called. An entry is never
+ * replaced by one built from an older configuration instance.
+ *
+ * <p>Processors are reference counted: callers {@link #acquire(UUID, AdyenConfigProperties)} a
+ * {@link Lease} for the duration of their Adyen calls, and a replaced or invalidated processor is
+ * only closed once the last lease on it is closed, so that a configuration change does not abort
+ * the payments in flight.
+ */
+public class GatewayProcessorRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(GatewayProcessorRegistry.class);
+
+  // ConcurrentHashMap does not accept null keys, the default configuration is stored under this one
+  private static final UUID DEFAULT_TENANT = new UUID(0L, 0L);
+
+  private final ConcurrentMap<UUID, Entry> processors = new ConcurrentHashMap<>();
+  private final BiFunction<AdyenConfigProperties, UUID, GatewayProcessor> factory;
+
+  public GatewayProcessorRegistry() {
+    this(GatewayProcessorFactory::get);
+  }
+
+  GatewayProcessorRegistry(
+      final BiFunction<AdyenConfigProperties, UUID, GatewayProcessor> factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * Returns the processor of the tenant, built from {@code adyenConfigProperties} unless a newer
+   * configuration was seen since. The processor stays open until the lease is closed.
+   */
+  public Lease acquire(
+      @Nullable final UUID kbTenantId, final AdyenConfigProperties adyenConfigProperties) {
+    final UUID key = kbTenantId == null ? DEFAULT_TENANT : kbTenantId;
+    while (true) {
+      Entry entry = processors.get(key);
+      if (entry == null || !entry.isCurrentFor(adyenConfigProperties)) {
+        entry =
+            processors.compute(
+                key,
+                (tenantId, existing) -> {
+                  if (existing != null && existing.isCurrentFor(adyenConfigProperties)) {
+                    return existing;
+                  }
+                  if (existing != null) {
+                    existing.release();
+                  }
+                  return new Entry(
+                      adyenConfigProperties, factory.apply(adyenConfigProperties, kbTenantId));
+                });
+      }
+      if (entry.retain()) {
+        return new Lease(entry);
+      }
+      // The entry was replaced and drained between the lookup and the retain, look it up again
+    }
+  }
+
+  public void invalidate(@Nullable final UUID kbTenantId) {
+    final Entry removed = processors.remove(kbTenantId == null ? DEFAULT_TENANT : kbTenantId);
+    if (removed != null) {
+      removed.release();
+    }
+  }
+
+  public void invalidateAll() {
+    for (final UUID kbTenantId : processors.keySet()) {
+      invalidate(kbTenantId);
+    }
+  }
+
+  /** Connection pool statistics of every cached processor, keyed by tenant */
+  public Map<UUID, AdyenHttpTransport.Stats> getTransportStats() {
+    final Map<UUID, AdyenHttpTransport.Stats> stats = new HashMap<>();
+    for (final Map.Entry<UUID, Entry> entry : processors.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().processor.getTransportStats());
+    }
+    return stats;
+  }
+
+  /** A processor retained by a caller, closing the lease lets the registry close the processor */
+  public static final class Lease implements Closeable {
+
+    private final Entry entry;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Lease(final Entry entry) {
+      this.entry = entry;
+    }
+
+    public GatewayProcessor getProcessor() {
+      return entry.processor;
+    }
+
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        entry.release();
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    private final AdyenConfigProperties configProperties;
+    private final GatewayProcessor processor;
+    // One reference for the registry while the entry is cached, plus one per open lease
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Entry(final AdyenConfigProperties configProperties, final GatewayProcessor processor) {
+      this.configProperties = configProperties;
+      this.processor = processor;
+    }
+
+    /**
+     * Whether a caller holding {@code adyenConfigProperties} should use this entry: either it was
+     * built from that instance, or from a newer one (the caller read the configuration before it
+     * was re-uploaded).
+     */
+    private boolean isCurrentFor(final AdyenConfigProperties adyenConfigProperties) {
+      return configProperties == adyenConfigProperties
+          || configProperties.getGeneration() > adyenConfigProperties.getGeneration();
+    }
+
+    private boolean retain() {
+      while (true) {
+        final int count = references.get();
+        if (count == 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private void release() {
+      if (references.decrementAndGet() != 0) {
+        return;
+      }
+      try {
+        processor.close();
+      } catch (final RuntimeException e) {
+        logger.warn("Unable to close Adyen gateway processor", e);
+      }
+    }
+  }
+}
@@ -16,7 +16,11 @@
  */
 package org.killbill.billing.plugin.adyen.core;
 
+import com.google.common.cache.CacheStats;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.UUID;
 import javax.servlet.Servlet;
 import javax.servlet.http.HttpServlet;
 import org.killbill.billing.osgi.api.Healthcheck;
@@ -24,9 +28,14 @@ import org.killbill.billing.osgi.api.OSGIPluginProperties;
 import org.killbill.billing.osgi.libs.killbill.KillbillActivatorBase;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.client.AdyenHttpTransport;
+import org.killbill.billing.plugin.adyen.core.resources.AdyenAdditionalDataServlet;
+import org.killbill.billing.plugin.adyen.core.resources.AdyenBulkRefundService;
+import org.killbill.billing.plugin.adyen.core.resources.AdyenBulkRefundServlet;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenCheckoutService;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenCheckoutServlet;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenHealthcheckServlet;
+import org.killbill.billing.plugin.adyen.core.resources.AdyenMetricsServlet;
 import org.killbill.billing.plugin.adyen.core.resources.AdyenNotificationServlet;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
 import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
@@ -44,13 +53,14 @@ public class AdyenActivator extends KillbillActivatorBase {
   public static final String PLUGIN_NAME = "adyen-plugin";
 
   private AdyenConfigurationHandler adyenConfigurationHandler;
+  private AdyenNotificationQueueProcessor notificationQueue;
+  private AdyenHealthProber healthProber;
 
   @Override
   public void start(final BundleContext context) throws Exception {
     super.start(context);
 
     logger.info(" starting plugin {}", PLUGIN_NAME);
-    final AdyenDao adyenDao = new AdyenDao(dataSource.getDataSource());
 
     final String region = PluginEnvironmentConfig.getRegion(configProperties.getProperties());
 
@@ -60,31 +70,52 @@ public class AdyenActivator extends KillbillActivatorBase {
     final AdyenConfigProperties globalConfiguration =
         adyenConfigurationHandler.createConfigurable(configProperties.getProperties());
     adyenConfigurationHandler.setDefaultConfigurable(globalConfiguration);
+    final AdyenDao adyenDao =
+        new AdyenDao(dataSource.getDataSource(), globalConfiguration.isCompressAdditionalData());
+    AdyenMetrics.getInstance()
+        .setGauge(AdyenMetrics.HTTP_POOL_CONNECTIONS, this::getHttpPoolConnections);
+    AdyenMetrics.getInstance()
+        .setGauge(AdyenMetrics.PAYMENT_METHOD_CACHE, () -> getPaymentMethodCache(adyenDao));
 
     // As an example, this plugin registers a PaymentPluginApi (this could be changed to any other
     // plugin api)
     logger.info("Registering an APIs");
-    final PaymentPluginApi paymentPluginApi =
+    final AdyenPaymentPluginApi paymentPluginApi =
         new AdyenPaymentPluginApi(
             adyenConfigurationHandler, killbillAPI, configProperties, clock.getClock(), adyenDao);
     registerPaymentPluginApi(context, paymentPluginApi);
 
+    // Notifications are stored by the servlet and applied in the background
+    notificationQueue =
+        new AdyenNotificationQueueProcessor(adyenDao, paymentPluginApi, globalConfiguration);
+    notificationQueue.start();
+
     // Expose a healthcheck (optional), so other plugins can check on the plugin status
     logger.info("Registering healthcheck");
-    final Healthcheck healthcheck = new AdyenHealthcheck();
+    healthProber = new AdyenHealthProber(adyenDao, adyenConfigurationHandler, globalConfiguration);
+    healthProber.start();
+    final Healthcheck healthcheck = new AdyenHealthcheck(healthProber);
     registerHealthcheck(context, healthcheck);
     final AdyenCheckoutService checkoutService =
         new AdyenCheckoutService(killbillAPI, adyenConfigurationHandler);
+    final AdyenBulkRefundService bulkRefundService =
+        new AdyenBulkRefundService(killbillAPI, clock, adyenDao);
     // Register a servlet (optional)
     final PluginApp pluginApp =
         new PluginAppBuilder(PLUGIN_NAME, killbillAPI, dataSource, super.clock, configProperties)
             .withRouteClass(AdyenHealthcheckServlet.class)
             .withRouteClass(AdyenNotificationServlet.class)
             .withRouteClass(AdyenCheckoutServlet.class)
+            .withRouteClass(AdyenMetricsServlet.class)
+            .withRouteClass(AdyenBulkRefundServlet.class)
+            .withRouteClass(AdyenAdditionalDataServlet.class)
             .withService(healthcheck)
             .withService(clock)
             .withService(checkoutService)
+            .withService(bulkRefundService)
             .withService(paymentPluginApi)
+            .withService(notificationQueue)
+            .withService(adyenDao)
             .build();
     final HttpServlet httpServlet = PluginApp.createServlet(pluginApp);
 
@@ -93,6 +124,48 @@ public class AdyenActivator extends KillbillActivatorBase {
     registerHandlers();
   }
 
+  @Override
+  public void stop(final BundleContext context) throws Exception {
+    if (notificationQueue != null) {
+      notificationQueue.stop();
+    }
+    if (healthProber != null) {
+      healthProber.stop();
+    }
+    AdyenMetrics.getInstance().removeGauge(AdyenMetrics.HTTP_POOL_CONNECTIONS);
+    AdyenMetrics.getInstance().removeGauge(AdyenMetrics.PAYMENT_METHOD_CACHE);
+    if (adyenConfigurationHandler != null) {
+      // Release the pooled Adyen connections
+      adyenConfigurationHandler.getGatewayProcessorRegistry().invalidateAll();
+    }
+    super.stop(context);
+  }
+
+  private Map<String, Integer> getHttpPoolConnections() {
+    final Map<String, Integer> samples = new HashMap<>();
+    for (final Map.Entry<UUID, AdyenHttpTransport.Stats> entry :
+        adyenConfigurationHandler.getGatewayProcessorRegistry().getTransportStats().entrySet()) {
+      final String tenant = entry.getKey().toString();
+      final AdyenHttpTransport.Stats stats = entry.getValue();
+      samples.put(AdyenMetrics.labels("tenant", tenant, "state", "leased"), stats.getLeased());
+      samples.put(AdyenMetrics.labels("tenant", tenant, "state", "pending"), stats.getPending());
+      samples.put(
+          AdyenMetrics.labels("tenant", tenant, "state", "available"), stats.getAvailable());
+      samples.put(AdyenMetrics.labels("tenant", tenant, "state", "max"), stats.getMax());
+    }
+    return samples;
+  }
+
+  private static Map<String, Long> getPaymentMethodCache(final AdyenDao adyenDao) {
+    final CacheStats stats = adyenDao.getPaymentMethodCacheStats();
+    final Map<String, Long> samples = new HashMap<>();
+    samples.put(AdyenMetrics.labels("stat", "hits"), stats.hitCount());
+    samples.put(AdyenMetrics.labels("stat", "misses"), stats.missCount());
+    samples.put(AdyenMetrics.labels("stat", "evictions"), stats.evictionCount());
+    samples.put(AdyenMetrics.labels("stat", "size"), adyenDao.getPaymentMethodCacheSize());
+    return samples;
+  }
+
   private void registerHandlers() {
     final PluginConfigurationEventHandler configHandler =
         new PluginConfigurationEventHandler(adyenConfigurationHandler);
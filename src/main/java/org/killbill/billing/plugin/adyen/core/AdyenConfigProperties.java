@@ -19,7 +19,12 @@ package org.killbill.billing.plugin.adyen.core;
 
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Adyen configuration of a tenant. Every value is resolved once, when the configuration is loaded:
+ * the plugin property if set, else the matching environment variable, else the default.
+ */
 public class AdyenConfigProperties {
 
   private static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.adyen.";
@@ -32,31 +37,216 @@ public class AdyenConfigProperties {
   public static final String ADYEN_CAPTURE_DELAY_HOURS = "ADYEN_CAPTURE_DELAY_HOURS";
   public static final String ADYEN_KB_USERNAME = "ADYEN_KB_USERNAME";
   public static final String ADYEN_KB_PASSWORD = "ADYEN_KB_PASSWORD";
+  public static final String ADYEN_CHECKOUT_URL = "ADYEN_CHECKOUT_URL";
+  public static final String ADYEN_CONNECT_TIMEOUT_MILLIS = "ADYEN_CONNECT_TIMEOUT_MILLIS";
+  public static final String ADYEN_READ_TIMEOUT_MILLIS = "ADYEN_READ_TIMEOUT_MILLIS";
+  public static final String ADYEN_MAX_CONNECTIONS = "ADYEN_MAX_CONNECTIONS";
+  public static final String ADYEN_MAX_CONNECTIONS_PER_ROUTE = "ADYEN_MAX_CONNECTIONS_PER_ROUTE";
+  public static final String ADYEN_KEEP_ALIVE_MILLIS = "ADYEN_KEEP_ALIVE_MILLIS";
+  public static final String ADYEN_MAX_CONCURRENT_REQUESTS = "ADYEN_MAX_CONCURRENT_REQUESTS";
+  public static final String ADYEN_VIRTUAL_THREADS = "ADYEN_VIRTUAL_THREADS";
+  public static final String ADYEN_REQUEST_TIMEOUT_MILLIS = "ADYEN_REQUEST_TIMEOUT_MILLIS";
+  public static final String ADYEN_MAX_RETRIES = "ADYEN_MAX_RETRIES";
+  public static final String ADYEN_RETRY_BACKOFF_MILLIS = "ADYEN_RETRY_BACKOFF_MILLIS";
+  public static final String ADYEN_CIRCUIT_BREAKER_FAILURES = "ADYEN_CIRCUIT_BREAKER_FAILURES";
+  public static final String ADYEN_CIRCUIT_BREAKER_OPEN_MILLIS =
+      "ADYEN_CIRCUIT_BREAKER_OPEN_MILLIS";
+  public static final String ADYEN_NOTIFICATION_WORKERS = "ADYEN_NOTIFICATION_WORKERS";
+  public static final String ADYEN_NOTIFICATION_QUEUE_CAPACITY =
+      "ADYEN_NOTIFICATION_QUEUE_CAPACITY";
+  public static final String ADYEN_NOTIFICATION_MAX_ATTEMPTS = "ADYEN_NOTIFICATION_MAX_ATTEMPTS";
+  public static final String ADYEN_HEALTHCHECK_INTERVAL_SECONDS =
+      "ADYEN_HEALTHCHECK_INTERVAL_SECONDS";
+  public static final String ADYEN_COMPRESS_ADDITIONAL_DATA = "ADYEN_COMPRESS_ADDITIONAL_DATA";
+
+  private static final String DEFAULT_ENVIROMENT = "TEST";
+  private static final String DEFAULT_CONNECT_TIMEOUT_MILLIS = "5000";
+  private static final String DEFAULT_READ_TIMEOUT_MILLIS = "30000";
+  private static final String DEFAULT_MAX_CONNECTIONS = "50";
+  private static final String DEFAULT_MAX_CONNECTIONS_PER_ROUTE = "50";
+  private static final String DEFAULT_KEEP_ALIVE_MILLIS = "60000";
+  // 0 means no limit other than the connection pool
+  private static final String DEFAULT_MAX_CONCURRENT_REQUESTS = "0";
+  private static final String DEFAULT_VIRTUAL_THREADS = "false";
+  // 0 means no deadline other than the connect and read timeouts
+  private static final String DEFAULT_REQUEST_TIMEOUT_MILLIS = "0";
+  private static final String DEFAULT_MAX_RETRIES = "2";
+  private static final String DEFAULT_RETRY_BACKOFF_MILLIS = "200";
+  // 0 disables the circuit breaker
+  private static final String DEFAULT_CIRCUIT_BREAKER_FAILURES = "5";
+  private static final String DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS = "30000";
+  private static final String DEFAULT_NOTIFICATION_WORKERS = "4";
+  private static final String DEFAULT_NOTIFICATION_QUEUE_CAPACITY = "1000";
+  private static final String DEFAULT_NOTIFICATION_MAX_ATTEMPTS = "10";
+  private static final String DEFAULT_HEALTHCHECK_INTERVAL_SECONDS = "30";
+  private static final String DEFAULT_COMPRESS_ADDITIONAL_DATA = "false";
+
+  // Orders the instances, so that caches can tell a stale configuration from the current one
+  private static final AtomicLong GENERATIONS = new AtomicLong();
+
+  private final long generation = GENERATIONS.incrementAndGet();
 
   private final String region;
 
-  private String apiKey;
-  private String merchantAccount;
-  private String returnUrl;
-  private String hcmaKey;
-  private String captureDelayHours;
-  private String enviroment;
+  private final String apiKey;
+  private final String merchantAccount;
+  private final String returnUrl;
+  private final String hcmaKey;
+  private final String captureDelayHours;
+  private final String enviroment;
 
-  private String username;
+  private final String username;
 
-  private String password;
+  private final String password;
+
+  private final String checkoutUrl;
+
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final int maxConnections;
+  private final int maxConnectionsPerRoute;
+  private final int keepAliveMillis;
+  private final int maxConcurrentRequests;
+  private final boolean virtualThreads;
+  private final int requestTimeoutMillis;
+  private final int maxRetries;
+  private final int retryBackoffMillis;
+  private final int circuitBreakerFailures;
+  private final int circuitBreakerOpenMillis;
+  private final int notificationWorkers;
+  private final int notificationQueueCapacity;
+  private final int notificationMaxAttempts;
+  private final int healthcheckIntervalSeconds;
+  private final boolean compressAdditionalData;
 
   public AdyenConfigProperties(final Properties properties, final String region) {
+    this(properties, region, System.getenv());
+  }
+
+  AdyenConfigProperties(
+      final Properties properties, final String region, final Map<String, String> env) {
     this.region = region;
 
-    this.apiKey = properties.getProperty(PROPERTY_PREFIX + "apiKey");
-    this.merchantAccount = properties.getProperty(PROPERTY_PREFIX + "merchantAccount");
-    this.returnUrl = properties.getProperty(PROPERTY_PREFIX + "returnUrl");
-    this.hcmaKey = properties.getProperty(PROPERTY_PREFIX + "hcmaKey");
-    this.captureDelayHours = properties.getProperty(PROPERTY_PREFIX + "captureDelayHours");
-    this.enviroment = properties.getProperty(PROPERTY_PREFIX + "enviroment");
-    this.username = properties.getProperty(PROPERTY_PREFIX + "username");
-    this.password = properties.getProperty(PROPERTY_PREFIX + "password");
+    this.apiKey = resolve(properties, "apiKey", env, ADYEN_API_KEY, null);
+    this.merchantAccount =
+        resolve(properties, "merchantAccount", env, ADYEN_MERCHANT_ACCOUNT, null);
+    this.returnUrl = resolve(properties, "returnUrl", env, ADYEN_RETURN_URL, null);
+    this.hcmaKey = resolve(properties, "hcmaKey", env, ADYEN_HMAC_KEY, null);
+    this.captureDelayHours =
+        resolve(properties, "captureDelayHours", env, ADYEN_CAPTURE_DELAY_HOURS, null);
+    this.enviroment = resolve(properties, "enviroment", env, ADYEN_ENVIROMENT, DEFAULT_ENVIROMENT);
+    this.username = resolve(properties, "username", env, ADYEN_KB_USERNAME, null);
+    this.password = resolve(properties, "password", env, ADYEN_KB_PASSWORD, null);
+    this.checkoutUrl = resolve(properties, "checkoutUrl", env, ADYEN_CHECKOUT_URL, null);
+    this.connectTimeoutMillis =
+        resolveInt(
+            properties,
+            "connectTimeoutMillis",
+            env,
+            ADYEN_CONNECT_TIMEOUT_MILLIS,
+            DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    this.readTimeoutMillis =
+        resolveInt(
+            properties,
+            "readTimeoutMillis",
+            env,
+            ADYEN_READ_TIMEOUT_MILLIS,
+            DEFAULT_READ_TIMEOUT_MILLIS);
+    this.maxConnections =
+        resolveInt(
+            properties, "maxConnections", env, ADYEN_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+    this.maxConnectionsPerRoute =
+        resolveInt(
+            properties,
+            "maxConnectionsPerRoute",
+            env,
+            ADYEN_MAX_CONNECTIONS_PER_ROUTE,
+            DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    this.keepAliveMillis =
+        resolveInt(
+            properties, "keepAliveMillis", env, ADYEN_KEEP_ALIVE_MILLIS, DEFAULT_KEEP_ALIVE_MILLIS);
+    this.maxConcurrentRequests =
+        resolveInt(
+            properties,
+            "maxConcurrentRequests",
+            env,
+            ADYEN_MAX_CONCURRENT_REQUESTS,
+            DEFAULT_MAX_CONCURRENT_REQUESTS);
+    this.virtualThreads =
+        Boolean.parseBoolean(
+            resolve(
+                properties, "virtualThreads", env, ADYEN_VIRTUAL_THREADS, DEFAULT_VIRTUAL_THREADS));
+    this.requestTimeoutMillis =
+        resolveInt(
+            properties,
+            "requestTimeoutMillis",
+            env,
+            ADYEN_REQUEST_TIMEOUT_MILLIS,
+            DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    this.maxRetries =
+        resolveInt(properties, "maxRetries", env, ADYEN_MAX_RETRIES, DEFAULT_MAX_RETRIES);
+    this.retryBackoffMillis =
+        resolveInt(
+            properties,
+            "retryBackoffMillis",
+            env,
+            ADYEN_RETRY_BACKOFF_MILLIS,
+            DEFAULT_RETRY_BACKOFF_MILLIS);
+    this.circuitBreakerFailures =
+        resolveInt(
+            properties,
+            "circuitBreakerFailures",
+            env,
+            ADYEN_CIRCUIT_BREAKER_FAILURES,
+            DEFAULT_CIRCUIT_BREAKER_FAILURES);
+    this.circuitBreakerOpenMillis =
+        resolveInt(
+            properties,
+            "circuitBreakerOpenMillis",
+            env,
+            ADYEN_CIRCUIT_BREAKER_OPEN_MILLIS,
+            DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS);
+    this.notificationWorkers =
+        resolveInt(
+            properties,
+            "notificationWorkers",
+            env,
+            ADYEN_NOTIFICATION_WORKERS,
+            DEFAULT_NOTIFICATION_WORKERS);
+    this.notificationQueueCapacity =
+        resolveInt(
+            properties,
+            "notificationQueueCapacity",
+            env,
+            ADYEN_NOTIFICATION_QUEUE_CAPACITY,
+            DEFAULT_NOTIFICATION_QUEUE_CAPACITY);
+    this.notificationMaxAttempts =
+        resolveInt(
+            properties,
+            "notificationMaxAttempts",
+            env,
+            ADYEN_NOTIFICATION_MAX_ATTEMPTS,
+            DEFAULT_NOTIFICATION_MAX_ATTEMPTS);
+    this.healthcheckIntervalSeconds =
+        resolveInt(
+            properties,
+            "healthcheckIntervalSeconds",
+            env,
+            ADYEN_HEALTHCHECK_INTERVAL_SECONDS,
+            DEFAULT_HEALTHCHECK_INTERVAL_SECONDS);
+    this.compressAdditionalData =
+        Boolean.parseBoolean(
+            resolve(
+                properties,
+                "compressAdditionalData",
+                env,
+                ADYEN_COMPRESS_ADDITIONAL_DATA,
+                DEFAULT_COMPRESS_ADDITIONAL_DATA));
+  }
+
+  /** Increases with every instance built, a re-uploaded configuration has a higher generation */
+  public long getGeneration() {
+    return generation;
   }
 
   public String getRegion() {
@@ -65,76 +255,142 @@ public class AdyenConfigProperties {
   }
 
   public String getApiKey() {
-    if (apiKey == null || apiKey.isEmpty()) {
-      return getClient(ADYEN_API_KEY, null);
-    }
     return apiKey;
   }
 
   public String getHMACKey() {
-    if (hcmaKey == null || hcmaKey.isEmpty()) {
-      return getClient(ADYEN_HMAC_KEY, null);
-    }
     return hcmaKey;
   }
 
   public String getMerchantAccount() {
-    if (merchantAccount == null || merchantAccount.isEmpty()) {
-      return getClient(ADYEN_MERCHANT_ACCOUNT, null);
-    }
-
     return merchantAccount;
   }
 
   public String getReturnUrl() {
-    if (returnUrl == null || returnUrl.isEmpty()) {
-      return getClient(ADYEN_RETURN_URL, null);
-    }
-
     return returnUrl;
   }
 
   public String getUsername() {
-    if (username == null || username.isEmpty()) {
-      return getClient(ADYEN_KB_USERNAME, null);
-    }
-
     return username;
   }
 
   public String getPassword() {
-    if (password == null || password.isEmpty()) {
-      return getClient(ADYEN_KB_PASSWORD, null);
-    }
-
     return password;
   }
 
   public String getCaptureDelayHours() {
-    if (captureDelayHours == null || captureDelayHours.isEmpty()) {
-      return getClient(ADYEN_CAPTURE_DELAY_HOURS, null);
-    }
-
     return captureDelayHours;
   }
 
   public String getEnviroment() {
-    if (enviroment == null || enviroment.isEmpty()) {
-      return getClient(ADYEN_ENVIROMENT, "TEST");
-    }
-
     return enviroment;
   }
 
-  private String getClient(String envKey, String defaultValue) {
-    Map<String, String> env = System.getenv();
+  /** Overrides the Checkout endpoint derived from the environment, e.g. to target a stub */
+  public String getCheckoutUrl() {
+    return checkoutUrl;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public int getKeepAliveMillis() {
+    return keepAliveMillis;
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /** Whether Adyen calls with a time budget run on virtual threads, when the JVM supports them */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /** Time budget of an Adyen call attempt, bounding the timeouts of its request, 0 for none */
+  public int getRequestTimeoutMillis() {
+    return requestTimeoutMillis;
+  }
+
+  /** Retries of a transient Adyen failure (I/O error, 429 or 5xx) */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /** Delay before the first retry, doubled for every following one */
+  public int getRetryBackoffMillis() {
+    return retryBackoffMillis;
+  }
+
+  /** Consecutive transient failures after which Adyen calls fail fast */
+  public int getCircuitBreakerFailures() {
+    return circuitBreakerFailures;
+  }
 
-    String value = env.get(envKey);
+  /** How long Adyen calls fail fast before one is let through again */
+  public int getCircuitBreakerOpenMillis() {
+    return circuitBreakerOpenMillis;
+  }
+
+  public int getNotificationWorkers() {
+    return notificationWorkers;
+  }
+
+  public int getNotificationQueueCapacity() {
+    return notificationQueueCapacity;
+  }
+
+  public int getNotificationMaxAttempts() {
+    return notificationMaxAttempts;
+  }
+
+  public int getHealthcheckIntervalSeconds() {
+    return healthcheckIntervalSeconds;
+  }
+
+  /** Whether the additional_data columns are written compressed, see AdyenAdditionalDataCodec */
+  public boolean isCompressAdditionalData() {
+    return compressAdditionalData;
+  }
+
+  private static int resolveInt(
+      final Properties properties,
+      final String key,
+      final Map<String, String> env,
+      final String envKey,
+      final String defaultValue) {
+    return Integer.parseInt(resolve(properties, key, env, envKey, defaultValue));
+  }
+
+  private static String resolve(
+      final Properties properties,
+      final String key,
+      final Map<String, String> env,
+      final String envKey,
+      final String defaultValue) {
+    final String value = properties.getProperty(PROPERTY_PREFIX + key);
+    if (value != null && !value.isEmpty()) {
+      return value;
+    }
 
-    if (value == null || value.isEmpty()) {
+    final String envValue = env.get(envKey);
+    if (envValue == null || envValue.isEmpty()) {
       return defaultValue;
     }
 
-    return value;
+    return envValue;
   }
 }
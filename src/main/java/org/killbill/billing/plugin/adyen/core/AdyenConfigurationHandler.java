@@ -18,7 +18,12 @@
 package org.killbill.billing.plugin.adyen.core;
 
 import java.util.Properties;
+import java.util.UUID;
+import javax.annotation.Nullable;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.plugin.adyen.client.AdyenHmacVerifier;
+import org.killbill.billing.plugin.adyen.client.AdyenHmacVerifierRegistry;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
 import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConfigurationHandler;
 
 /**
@@ -42,6 +47,8 @@ public class AdyenConfigurationHandler
     extends PluginTenantConfigurableConfigurationHandler<AdyenConfigProperties> {
 
   private final String region;
+  private final GatewayProcessorRegistry gatewayProcessorRegistry = new GatewayProcessorRegistry();
+  private final AdyenHmacVerifierRegistry hmacVerifierRegistry = new AdyenHmacVerifierRegistry();
 
   public AdyenConfigurationHandler(
       final String region, final String pluginName, final OSGIKillbillAPI osgiKillbillAPI) {
@@ -53,4 +60,33 @@ public class AdyenConfigurationHandler
   protected AdyenConfigProperties createConfigurable(final Properties properties) {
     return new AdyenConfigProperties(properties, region);
   }
+
+  @Override
+  protected void configure(@Nullable final UUID kbTenantId) {
+    super.configure(kbTenantId);
+    // Drop the Adyen client built from the previous configuration, once its calls are done
+    gatewayProcessorRegistry.invalidate(kbTenantId);
+    hmacVerifierRegistry.invalidate(kbTenantId);
+  }
+
+  public GatewayProcessorRegistry getGatewayProcessorRegistry() {
+    return gatewayProcessorRegistry;
+  }
+
+  /**
+   * Returns the cached gateway processor for the tenant, built from its current configuration. The
+   * lease must be closed once the Adyen calls are done.
+   */
+  public GatewayProcessorRegistry.Lease acquireGatewayProcessor(@Nullable final UUID kbTenantId) {
+    return gatewayProcessorRegistry.acquire(kbTenantId, getConfigurable(kbTenantId));
+  }
+
+  /** Returns the cached notification signature verifier for the tenant */
+  public AdyenHmacVerifier getHmacVerifier(@Nullable final UUID kbTenantId) {
+    return hmacVerifierRegistry.get(kbTenantId, getConfigurable(kbTenantId));
+  }
+
+  public AdyenHmacVerifierRegistry getHmacVerifierRegistry() {
+    return hmacVerifierRegistry;
+  }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+import org.killbill.billing.osgi.api.Healthcheck.HealthStatus;
+import org.killbill.billing.plugin.adyen.client.GatewayProcessorRegistry;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Probes the database and, for every tenant the healthcheck was asked about, the Adyen API in the
+ * background. The healthcheck only reads the cached results, so it answers immediately and never
+ * blocks on a live call.
+ *
+ * <p>Probes run one after the other on a single thread, every {@code healthcheckIntervalSeconds}:
+ * an unreachable Adyen endpoint delays the next probes by at most the read timeout.
+ */
+public class AdyenHealthProber {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenHealthProber.class);
+
+  // Latency percentiles are computed over the last probes
+  private static final int WINDOW = 60;
+
+  private final AdyenDao adyenDao;
+  private final AdyenConfigurationHandler adyenConfigurationHandler;
+  private final long intervalSeconds;
+  private final Probe database = new Probe();
+  private final ConcurrentMap<UUID, Probe> tenants = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService scheduler;
+
+  public AdyenHealthProber(
+      final AdyenDao adyenDao,
+      final AdyenConfigurationHandler adyenConfigurationHandler,
+      final AdyenConfigProperties adyenConfigProperties) {
+    this.adyenDao = adyenDao;
+    this.adyenConfigurationHandler = adyenConfigurationHandler;
+    this.intervalSeconds = Math.max(1, adyenConfigProperties.getHealthcheckIntervalSeconds());
+  }
+
+  public synchronized void start() {
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat(AdyenActivator.PLUGIN_NAME + "-health-prober")
+                .setDaemon(true)
+                .build());
+    scheduler.scheduleWithFixedDelay(this::probeAll, 0, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /** Latest probe results: the database only, or the database and the tenant Adyen account */
+  public HealthStatus getHealthStatus(@Nullable final UUID kbTenantId) {
+    final Map<String, Object> details = new LinkedHashMap<>();
+    boolean healthy = database.describe("database", details);
+    if (kbTenantId != null) {
+      Probe probe = tenants.get(kbTenantId);
+      if (probe == null) {
+        // First request for this tenant: probe it from now on, starting right away
+        final Probe newProbe = new Probe();
+        probe = tenants.putIfAbsent(kbTenantId, newProbe);
+        if (probe == null) {
+          probe = newProbe;
+          submit(() -> probeTenant(kbTenantId, newProbe));
+        }
+      }
+      healthy &= probe.describe("adyen", details);
+    }
+    return new HealthStatus(healthy, details);
+  }
+
+  private synchronized void submit(final Runnable task) {
+    if (scheduler != null && !scheduler.isShutdown()) {
+      scheduler.execute(task);
+    }
+  }
+
+  private void probeAll() {
+    probeDatabase();
+    for (final Map.Entry<UUID, Probe> entry : tenants.entrySet()) {
+      probeTenant(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void probeDatabase() {
+    final long startNanos = System.nanoTime();
+    try {
+      adyenDao.ping();
+      database.success(System.nanoTime() - startNanos);
+    } catch (final Exception e) {
+      logger.warn("Database health probe failed", e);
+      database.failure(e);
+    }
+  }
+
+  private void probeTenant(final UUID kbTenantId, final Probe probe) {
+    final long startNanos = System.nanoTime();
+    try (GatewayProcessorRegistry.Lease lease =
+        adyenConfigurationHandler.acquireGatewayProcessor(kbTenantId)) {
+      lease.getProcessor().ping();
+      probe.success(System.nanoTime() - startNanos);
+    } catch (final Exception e) {
+      logger.warn("Adyen health probe failed for tenant {}", kbTenantId, e);
+      probe.failure(e);
+    }
+  }
+
+  /** Results of one probed dependency, written by the prober thread only */
+  private static final class Probe {
+
+    private final long[] latenciesNanos = new long[WINDOW];
+    private int count;
+    // Replaced after every probe, details are immutable
+    private volatile HealthStatus latest;
+
+    private void success(final long latencyNanos) {
+      latenciesNanos[count % WINDOW] = latencyNanos;
+      count++;
+
+      final long[] sorted = Arrays.copyOf(latenciesNanos, Math.min(count, WINDOW));
+      Arrays.sort(sorted);
+      final Map<String, Object> result = new LinkedHashMap<>();
+      result.put("status", "OK");
+      result.put("lastProbe", DateTime.now().toString());
+      result.put("latencyMillis", toMillis(latencyNanos));
+      result.put("p50Millis", toMillis(percentile(sorted, 0.50)));
+      result.put("p95Millis", toMillis(percentile(sorted, 0.95)));
+      result.put("p99Millis", toMillis(percentile(sorted, 0.99)));
+      result.put("probes", sorted.length);
+      latest = new HealthStatus(true, Collections.unmodifiableMap(result));
+    }
+
+    private void failure(final Exception e) {
+      final Map<String, Object> result = new LinkedHashMap<>();
+      result.put("status", "ERROR");
+      result.put("lastProbe", DateTime.now().toString());
+      result.put("error", String.valueOf(e.getMessage()));
+      latest = new HealthStatus(false, Collections.unmodifiableMap(result));
+    }
+
+    /** Adds the latest result to the details, returns whether the dependency is healthy */
+    private boolean describe(final String name, final Map<String, Object> details) {
+      final HealthStatus current = latest;
+      if (current == null) {
+        // Not probed yet, do not fail the node because of it
+        details.put(name, Collections.singletonMap("status", "PENDING"));
+        return true;
+      }
+      details.put(name, current.getDetails());
+      return current.isHealthy();
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+      final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double toMillis(final long nanos) {
+      return Math.round(nanos / 10_000.0) / 100.0;
+    }
+  }
+}
@@ -21,33 +21,20 @@ import java.util.Map;
 import javax.annotation.Nullable;
 import org.killbill.billing.osgi.api.Healthcheck;
 import org.killbill.billing.tenant.api.Tenant;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+/** Reports the cached results of {@link AdyenHealthProber}, it never contacts Adyen itself */
 public class AdyenHealthcheck implements Healthcheck {
-  private static final Logger logger = LoggerFactory.getLogger(AdyenHealthcheck.class);
 
-  @Override
-  public HealthStatus getHealthStatus(
-      @Nullable final Tenant tenant, @Nullable final Map properties) {
-    if (tenant == null) {
-      // The plugin is running
-      return HealthStatus.healthy("Adyen OK");
-    } else {
-      // Specifying the tenant lets you also validate the tenant configuration
+  private final AdyenHealthProber healthProber;
 
-      return pingGatewayService();
-    }
+  public AdyenHealthcheck(final AdyenHealthProber healthProber) {
+    this.healthProber = healthProber;
   }
 
-  private HealthStatus pingGatewayService() {
-
-    try {
-
-      return HealthStatus.healthy("Adyen OK");
-    } catch (final Exception e) {
-      logger.warn("Healthcheck error", e);
-      return HealthStatus.unHealthy("Adyen error: " + e.getMessage());
-    }
+  @Override
+  public HealthStatus getHealthStatus(
+      @Nullable final Tenant tenant, @Nullable final Map properties) {
+    // Specifying the tenant also checks its Adyen credentials and connectivity
+    return healthProber.getHealthStatus(tenant == null ? null : tenant.getId());
   }
 }
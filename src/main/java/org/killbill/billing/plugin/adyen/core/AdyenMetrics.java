@@ -0,0 +1,308 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters, latency histograms and gauges of the plugin, rendered in the Prometheus text format by
+ * the {@code /metrics} route.
+ *
+ * <p>There is a single registry per plugin instance, see {@link #getInstance()}, so that the Adyen
+ * clients and the DAO can record into it without having it threaded through their constructors.
+ * Recording is lock-free: a map lookup and a few {@link LongAdder} increments.
+ */
+public class AdyenMetrics {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenMetrics.class);
+
+  public static final String GATEWAY_REQUEST_SECONDS = "adyen_gateway_request_duration_seconds";
+  public static final String DAO_QUERY_SECONDS = "adyen_dao_query_duration_seconds";
+  public static final String NOTIFICATION_PROCESSING_SECONDS =
+      "adyen_notification_processing_duration_seconds";
+  public static final String NOTIFICATION_LAG_SECONDS = "adyen_notification_lag_seconds";
+  public static final String NOTIFICATIONS_TOTAL = "adyen_notifications_total";
+  public static final String NOTIFICATION_DUPLICATES_TOTAL = "adyen_notification_duplicates_total";
+  public static final String NOTIFICATION_QUEUE_DEPTH = "adyen_notification_queue_depth";
+  public static final String HTTP_POOL_CONNECTIONS = "adyen_http_pool_connections";
+  public static final String PAYMENT_METHOD_CACHE = "adyen_payment_method_cache";
+
+  public static final String OUTCOME_SUCCESS = "success";
+  public static final String OUTCOME_API_EXCEPTION = "api_exception";
+  public static final String OUTCOME_IO_EXCEPTION = "io_exception";
+  // Not sent: the bulkhead was full
+  public static final String OUTCOME_REJECTED = "rejected";
+  public static final String OUTCOME_ERROR = "error";
+
+  // Upper bounds, in seconds, from a fast query to a slow Adyen call or a long queue lag
+  private static final double[] BUCKETS = {
+    0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 3600
+  };
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static final AdyenMetrics INSTANCE = new AdyenMetrics();
+
+  // Sorted, so that the output is stable between scrapes
+  private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+  AdyenMetrics() {
+    register(GATEWAY_REQUEST_SECONDS, Type.HISTOGRAM, "Adyen Checkout API calls");
+    register(DAO_QUERY_SECONDS, Type.HISTOGRAM, "Plugin database queries");
+    register(
+        NOTIFICATION_PROCESSING_SECONDS, Type.HISTOGRAM, "Processing of a queued notification");
+    register(
+        NOTIFICATION_LAG_SECONDS,
+        Type.HISTOGRAM,
+        "Time between the reception of a notification and the end of its processing");
+    register(NOTIFICATIONS_TOTAL, Type.COUNTER, "Processed notifications");
+    register(
+        NOTIFICATION_DUPLICATES_TOTAL, Type.COUNTER, "Notification items applied before, skipped");
+    register(NOTIFICATION_QUEUE_DEPTH, Type.GAUGE, "Notifications waiting to be processed");
+    register(HTTP_POOL_CONNECTIONS, Type.GAUGE, "Adyen connection pool usage");
+    register(PAYMENT_METHOD_CACHE, Type.GAUGE, "Payment method cache lookups and size");
+  }
+
+  public static AdyenMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param operation sessions, payments, refunds or reversals
+   * @param outcome one of the {@code OUTCOME_*} constants
+   */
+  public void recordGatewayRequest(
+      final String operation, final String tenant, final String outcome, final long nanos) {
+    observe(
+        GATEWAY_REQUEST_SECONDS,
+        nanos,
+        "operation",
+        operation,
+        "tenant",
+        tenant,
+        "outcome",
+        outcome);
+  }
+
+  public void recordDaoQuery(final String query, final long nanos) {
+    observe(DAO_QUERY_SECONDS, nanos, "query", query);
+  }
+
+  /** @param outcome processed, retried or failed */
+  public void recordNotification(final String outcome, final long nanos, final long lagNanos) {
+    increment(NOTIFICATIONS_TOTAL, "outcome", outcome);
+    observe(NOTIFICATION_PROCESSING_SECONDS, nanos, "outcome", outcome);
+    if (lagNanos >= 0) {
+      observe(NOTIFICATION_LAG_SECONDS, lagNanos);
+    }
+  }
+
+  /**
+   * Registers (or replaces) the samples of a gauge, computed at scrape time
+   *
+   * @param samples values keyed by labels, see {@link #labels(String...)}
+   */
+  public void setGauge(final String name, final Supplier<Map<String, ? extends Number>> samples) {
+    getFamily(name, Type.GAUGE).gauge = samples;
+  }
+
+  public void removeGauge(final String name) {
+    getFamily(name, Type.GAUGE).gauge = null;
+  }
+
+  public void observe(final String name, final long nanos, final String... labels) {
+    ((Histogram)
+            getFamily(name, Type.HISTOGRAM)
+                .children
+                .computeIfAbsent(labels(labels), key -> new Histogram()))
+        .observe(nanos);
+  }
+
+  public void increment(final String name, final String... labels) {
+    ((LongAdder)
+            getFamily(name, Type.COUNTER)
+                .children
+                .computeIfAbsent(labels(labels), key -> new LongAdder()))
+        .increment();
+  }
+
+  /** Prometheus text exposition format, version 0.0.4 */
+  public String render() {
+    final StringBuilder out = new StringBuilder();
+    for (final Family family : families.values()) {
+      out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(family.name).append(' ').append(family.type.name).append('\n');
+      switch (family.type) {
+        case HISTOGRAM:
+          for (final Map.Entry<String, Object> child : family.children.entrySet()) {
+            ((Histogram) child.getValue()).render(out, family.name, child.getKey());
+          }
+          break;
+        case COUNTER:
+          for (final Map.Entry<String, Object> child : family.children.entrySet()) {
+            sample(out, family.name, child.getKey(), ((LongAdder) child.getValue()).sum());
+          }
+          break;
+        case GAUGE:
+          final Supplier<Map<String, ? extends Number>> gauge = family.gauge;
+          if (gauge == null) {
+            break;
+          }
+          try {
+            for (final Map.Entry<String, ? extends Number> sample : gauge.get().entrySet()) {
+              sample(out, family.name, sample.getKey(), sample.getValue().doubleValue());
+            }
+          } catch (final RuntimeException e) {
+            logger.warn("Unable to compute gauge {}", family.name, e);
+          }
+          break;
+      }
+    }
+    return out.toString();
+  }
+
+  /** Renders label pairs, e.g. {@code labels("tenant", "x", "outcome", "y")} */
+  public static String labels(final String... namesAndValues) {
+    final StringBuilder out = new StringBuilder();
+    for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+      if (out.length() > 0) {
+        out.append(',');
+      }
+      out.append(namesAndValues[i]).append("=\"");
+      final String value = namesAndValues[i + 1] == null ? "" : namesAndValues[i + 1];
+      for (int j = 0; j < value.length(); j++) {
+        final char c = value.charAt(j);
+        if (c == '\\' || c == '"') {
+          out.append('\\').append(c);
+        } else if (c == '\n') {
+          out.append("\\n");
+        } else {
+          out.append(c);
+        }
+      }
+      out.append('"');
+    }
+    return out.toString();
+  }
+
+  private void register(final String name, final Type type, final String help) {
+    families.put(name, new Family(name, type, help));
+  }
+
+  private Family getFamily(final String name, final Type type) {
+    final Family family = families.get(name);
+    if (family == null || family.type != type) {
+      throw new IllegalArgumentException("Unknown " + type.name + " " + name);
+    }
+    return family;
+  }
+
+  private static void sample(
+      final StringBuilder out, final String name, final String labels, final double value) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(format(value)).append('\n');
+  }
+
+  private static String format(final double value) {
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private enum Type {
+    COUNTER("counter"),
+    GAUGE("gauge"),
+    HISTOGRAM("histogram");
+
+    private final String name;
+
+    Type(final String name) {
+      this.name = name;
+    }
+  }
+
+  private static final class Family {
+
+    private final String name;
+    private final Type type;
+    private final String help;
+    // Histogram or LongAdder, keyed by rendered labels
+    private final ConcurrentMap<String, Object> children = new ConcurrentHashMap<>();
+    private volatile Supplier<Map<String, ? extends Number>> gauge;
+
+    private Family(final String name, final Type type, final String help) {
+      this.name = name;
+      this.type = type;
+      this.help = help;
+    }
+  }
+
+  private static final class Histogram {
+
+    private static final long[] BOUNDS_NANOS = new long[BUCKETS.length];
+
+    static {
+      for (int i = 0; i < BUCKETS.length; i++) {
+        BOUNDS_NANOS[i] = (long) (BUCKETS[i] * NANOS_PER_SECOND);
+      }
+    }
+
+    // Not cumulative, the last one counts the observations above the highest bound
+    private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    private Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    private void observe(final long nanos) {
+      int i = 0;
+      while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+        i++;
+      }
+      buckets[i].increment();
+      sumNanos.add(nanos);
+    }
+
+    private void render(final StringBuilder out, final String name, final String labels) {
+      final String prefix = labels.isEmpty() ? "" : labels + ",";
+      long cumulative = 0;
+      for (int i = 0; i < BUCKETS.length; i++) {
+        cumulative += buckets[i].sum();
+        sample(out, name + "_bucket", prefix + "le=\"" + BUCKETS[i] + "\"", cumulative);
+      }
+      cumulative += buckets[BUCKETS.length].sum();
+      sample(out, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+      sample(out, name + "_sum", labels, sumNanos.sum() / NANOS_PER_SECOND);
+      sample(out, name + "_count", labels, cumulative);
+    }
+  }
+}
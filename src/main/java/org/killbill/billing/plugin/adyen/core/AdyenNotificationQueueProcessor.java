@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.jooq.types.ULong;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationQueueRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable queue of Adyen notifications.
+ *
+ * <p>The notification servlet only stores the raw body in {@code adyen_notification_queue} and
+ * acknowledges it, the notifications are then applied by a bounded pool of workers. Rows are handed
+ * to the pool right after being stored and a poller picks up whatever the pool could not take (full
+ * queue, restart, retries), so a burst of webhooks piles up in the database rather than in memory.
+ *
+ * <p>A worker claims a row for {@link #LEASE_MILLIS} before processing it: rows claimed by a node
+ * which died are processed again once the lease expires. Failed notifications are retried with an
+ * exponential backoff and marked as {@code FAILED} after {@code notificationMaxAttempts} attempts.
+ */
+public class AdyenNotificationQueueProcessor {
+
+  private static final Logger logger =
+      LoggerFactory.getLogger(AdyenNotificationQueueProcessor.class);
+
+  static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  static final long MIN_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final AdyenDao adyenDao;
+  private final AdyenPaymentPluginApi adyenPaymentPluginApi;
+  private final int workers;
+  private final int queueCapacity;
+  private final int maxAttempts;
+  private final String owner;
+  private final AdyenMetrics metrics = AdyenMetrics.getInstance();
+  // Rows handed to the pool and not yet processed, so the poller does not submit them twice
+  private final Set<ULong> scheduled = ConcurrentHashMap.newKeySet();
+
+  private ThreadPoolExecutor executor;
+  private ScheduledExecutorService poller;
+
+  public AdyenNotificationQueueProcessor(
+      final AdyenDao adyenDao,
+      final AdyenPaymentPluginApi adyenPaymentPluginApi,
+      final AdyenConfigProperties adyenConfigProperties) {
+    this.adyenDao = adyenDao;
+    this.adyenPaymentPluginApi = adyenPaymentPluginApi;
+    this.workers = Math.max(1, adyenConfigProperties.getNotificationWorkers());
+    this.queueCapacity = Math.max(1, adyenConfigProperties.getNotificationQueueCapacity());
+    this.maxAttempts = Math.max(1, adyenConfigProperties.getNotificationMaxAttempts());
+    this.owner = getHostName();
+  }
+
+  public synchronized void start() {
+    executor =
+        new ThreadPoolExecutor(
+            workers,
+            workers,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new ThreadFactoryBuilder()
+                .setNameFormat(AdyenActivator.PLUGIN_NAME + "-notification-%d")
+                .setDaemon(true)
+                .build(),
+            new ThreadPoolExecutor.AbortPolicy());
+    poller =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat(AdyenActivator.PLUGIN_NAME + "-notification-poller")
+                .setDaemon(true)
+                .build());
+    poller.scheduleWithFixedDelay(
+        this::poll, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    metrics.setGauge(AdyenMetrics.NOTIFICATION_QUEUE_DEPTH, this::getQueueDepth);
+  }
+
+  public synchronized void stop() {
+    metrics.removeGauge(AdyenMetrics.NOTIFICATION_QUEUE_DEPTH);
+    if (poller != null) {
+      poller.shutdownNow();
+    }
+    if (executor != null) {
+      // Queued rows stay in the database and are picked up on the next start
+      executor.shutdownNow();
+      try {
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+          logger.warn("Adyen notification workers did not terminate in time");
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    scheduled.clear();
+  }
+
+  /** Stores the notification, it is applied asynchronously */
+  public void enqueue(final String notification) throws SQLException {
+    final ULong recordId = adyenDao.enqueueNotification(notification);
+    submit(recordId);
+  }
+
+  /** Number of notifications waiting to be (or being) processed */
+  public int getBacklog() throws SQLException {
+    return adyenDao.getQueuedNotificationsCount();
+  }
+
+  private Map<String, Integer> getQueueDepth() {
+    final int backlog;
+    try {
+      backlog = getBacklog();
+    } catch (final SQLException e) {
+      throw new IllegalStateException(e);
+    }
+    return ImmutableMap.of(
+        AdyenMetrics.labels("location", "database"),
+        backlog,
+        AdyenMetrics.labels("location", "memory"),
+        executor.getQueue().size());
+  }
+
+  private void poll() {
+    try {
+      final int freeSlots = executor.getQueue().remainingCapacity();
+      if (freeSlots == 0) {
+        return;
+      }
+      final List<ULong> ready = adyenDao.getReadyQueuedNotifications(freeSlots);
+      for (final ULong recordId : ready) {
+        if (!submit(recordId)) {
+          break;
+        }
+      }
+    } catch (final Exception e) {
+      logger.warn("Unable to poll the Adyen notification queue", e);
+    }
+  }
+
+  private boolean submit(final ULong recordId) {
+    if (executor == null || !scheduled.add(recordId)) {
+      return true;
+    }
+    try {
+      executor.execute(() -> process(recordId));
+      return true;
+    } catch (final RejectedExecutionException e) {
+      // Pool saturated (or stopping): the poller will pick the row up later
+      scheduled.remove(recordId);
+      return false;
+    }
+  }
+
+  private void process(final ULong recordId) {
+    try {
+      final AdyenNotificationQueueRecord record =
+          adyenDao.claimQueuedNotification(recordId, owner, LEASE_MILLIS);
+      if (record == null) {
+        return;
+      }
+      final long startNanos = System.nanoTime();
+      try {
+        adyenPaymentPluginApi.handleNotification(record.getBody(), ImmutableList.of());
+        adyenDao.completeQueuedNotification(recordId);
+        metrics.recordNotification(
+            "processed", System.nanoTime() - startNanos, getLagNanos(record));
+      } catch (final Exception e) {
+        final int attempts = record.getErrorCount() + 1;
+        final boolean giveUp = attempts >= maxAttempts;
+        metrics.recordNotification(
+            giveUp ? "failed" : "retried", System.nanoTime() - startNanos, -1);
+        if (giveUp) {
+          logger.error(
+              "Giving up on Adyen notification {} after {} attempts", recordId, attempts, e);
+        } else {
+          logger.warn("Adyen notification {} failed (attempt {})", recordId, attempts, e);
+        }
+        adyenDao.failQueuedNotification(recordId, attempts, getRetryDelayMillis(attempts), giveUp);
+      }
+    } catch (final SQLException e) {
+      // The lease expires and the row is retried
+      logger.warn("Unable to update Adyen notification {}", recordId, e);
+    } finally {
+      scheduled.remove(recordId);
+    }
+  }
+
+  private static long getLagNanos(final AdyenNotificationQueueRecord record) {
+    // Stored in UTC
+    return Duration.between(record.getCreatedDate(), LocalDateTime.now(ZoneOffset.UTC)).toNanos();
+  }
+
+  static long getRetryDelayMillis(final int attempts) {
+    final int shift = Math.min(Math.max(attempts - 1, 0), 20);
+    return Math.min(MIN_RETRY_DELAY_MILLIS << shift, MAX_RETRY_DELAY_MILLIS);
+  }
+
+  private static String getHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (final UnknownHostException e) {
+      return UUID.randomUUID().toString();
+    }
+  }
+}
@@ -17,13 +17,12 @@
 
 package org.killbill.billing.plugin.adyen.core;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import org.killbill.billing.plugin.adyen.client.exceptions.FormaterException;
+import org.killbill.billing.plugin.adyen.dao.AdyenAdditionalDataCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,32 +55,19 @@ public abstract class AdyenPluginProperties {
   }
 
   public static Map<String, Object> toAdditionalDataMap(final String paymentMethodAdditionalData) {
-    // JSON to Object
-    final ObjectMapper mapper = new ObjectMapper();
-    Map<String, Object> additionalDataMap = null;
     try {
-      additionalDataMap =
-          mapper.readValue(
-              paymentMethodAdditionalData, new TypeReference<Map<String, Object>>() {});
-    } catch (JsonProcessingException e) {
+      return new HashMap<>(AdyenAdditionalDataCodec.read(paymentMethodAdditionalData));
+    } catch (final FormaterException e) {
       logger.error("{}", e.getMessage(), e);
+      return null;
     }
-    return additionalDataMap;
   }
 
-  public static String asString(final Map<?, ?> additionalData) throws SQLException {
-    if (additionalData == null || additionalData.isEmpty()) {
-      return null;
-    }
-    return asString((Object) additionalData);
+  public static String asString(final Map<String, String> additionalData) throws SQLException {
+    return AdyenAdditionalDataCodec.write(additionalData);
   }
 
   public static String asString(final Object additionalData) throws SQLException {
-    final ObjectMapper objectMapper = new ObjectMapper();
-    try {
-      return objectMapper.writeValueAsString(additionalData);
-    } catch (final JsonProcessingException e) {
-      throw new SQLException(e);
-    }
+    return AdyenAdditionalDataCodec.writeValue(additionalData);
   }
 }
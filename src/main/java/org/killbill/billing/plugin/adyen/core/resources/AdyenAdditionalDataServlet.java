@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core.resources;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.mvc.Body;
+import org.jooby.mvc.Header;
+import org.jooby.mvc.Local;
+import org.jooby.mvc.POST;
+import org.jooby.mvc.Path;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.core.PluginServlet;
+import org.killbill.billing.security.Permission;
+import org.killbill.billing.tenant.api.Tenant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rewrites the additional_data of the tenant rows, e.g. {"compress": true, "batchSize": 1000}. The
+ * response lists, for every table, the rows rewritten and their size before and after.
+ *
+ * <p>Every row of the tenant is rewritten, so the request must carry the Basic credentials of a
+ * Kill Bill user allowed to fix data.
+ */
+@Singleton
+@Path("/additionalData")
+public class AdyenAdditionalDataServlet extends PluginServlet {
+  private static final Logger logger = LoggerFactory.getLogger(AdyenAdditionalDataServlet.class);
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  // Each batch is one transaction, holding the locks of its rows
+  public static final int MAX_BATCH_SIZE = 10000;
+
+  private final OSGIKillbillAPI killbillAPI;
+  private final AdyenDao adyenDao;
+
+  @Inject
+  public AdyenAdditionalDataServlet(final OSGIKillbillAPI killbillAPI, final AdyenDao adyenDao) {
+    this.killbillAPI = killbillAPI;
+    this.adyenDao = adyenDao;
+  }
+
+  @POST
+  public Result rewrite(
+      @Body final String body,
+      @Header("Authorization") final Optional<String> authorization,
+      @Local @Named("killbill_tenant") final Tenant tenant)
+      throws IOException, SQLException {
+    AdyenCaller.fromAuthorization(authorization)
+        .checkPermissions(
+            killbillAPI.getSecurityApi(),
+            ImmutableList.of(Permission.ADMIN_CAN_FIX_DATA),
+            tenant.getId());
+
+    final JsonNode request = objectMapper.readTree(body);
+    final JsonNode compressNode = request.path("compress");
+    if (!compressNode.isMissingNode() && !compressNode.isBoolean()) {
+      throw new IllegalArgumentException("compress must be a boolean");
+    }
+    final boolean compress = compressNode.asBoolean(true);
+    final JsonNode batchSizeNode = request.path("batchSize");
+    if (!batchSizeNode.isMissingNode() && !batchSizeNode.isInt()) {
+      throw new IllegalArgumentException("batchSize must be an integer");
+    }
+    final int batchSize = batchSizeNode.asInt(DEFAULT_BATCH_SIZE);
+    if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+    }
+
+    final List<AdyenDao.AdditionalDataRewrite> rewrites =
+        adyenDao.rewriteAdditionalData(tenant.getId(), compress, batchSize);
+    for (final AdyenDao.AdditionalDataRewrite rewrite : rewrites) {
+      logger.info(
+          "Rewrote the additional data of {} rows of {} (compress={}): {} bytes before, {} after",
+          rewrite.getRows(),
+          rewrite.getTable(),
+          compress,
+          rewrite.getBytesBefore(),
+          rewrite.getBytesAfter());
+    }
+    return Results.ok(objectMapper.writeValueAsString(rewrites)).type(MediaType.json);
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core.resources;
+
+import static org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi.INTERNAL;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountApiException;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillClock;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentApiException;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.plugin.adyen.core.AdyenActivator;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.killbill.billing.plugin.api.PluginCallContext;
+import org.killbill.billing.security.Permission;
+import org.killbill.billing.security.api.SecurityApi;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refunds or voids many payments at once, e.g. after a failed billing run.
+ *
+ * <p>Every operation goes through the Kill Bill payment API, as if requested one by one, so that
+ * Kill Bill records the transactions. The purchases and their refunds are loaded upfront to reject
+ * unknown payments, payments listed twice and amounts above what is left to refund before anything
+ * is sent, and the operations are then run concurrently, with a bounded parallelism and an optional
+ * rate limit.
+ *
+ * <p>The operations run under the identity of the caller: their refund (and, to void, payment)
+ * permissions are checked before anything is loaded, and the worker threads log in with their
+ * credentials, so that Kill Bill enforces and audits them as for the payment API.
+ */
+public class AdyenBulkRefundService {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdyenBulkRefundService.class);
+
+  public static final int DEFAULT_PARALLELISM = 4;
+  public static final int MAX_PARALLELISM = 32;
+  public static final String ERROR = "ERROR";
+
+  private final OSGIKillbillAPI killbillAPI;
+  private final OSGIKillbillClock clock;
+  private final AdyenDao adyenDao;
+
+  public AdyenBulkRefundService(
+      final OSGIKillbillAPI killbillAPI, final OSGIKillbillClock clock, final AdyenDao adyenDao) {
+    this.killbillAPI = killbillAPI;
+    this.clock = clock;
+    this.adyenDao = adyenDao;
+  }
+
+  /**
+   * @param caller Kill Bill user the operations are run as
+   * @param parallelism number of operations in flight, capped to {@link #MAX_PARALLELISM}
+   * @param ratePerSecond maximum number of operations started per second, 0 for no limit
+   * @param listener called with every result, as soon as it is known
+   * @return the results, in completion order
+   */
+  public List<Result> refund(
+      final AdyenCaller caller,
+      final List<Item> items,
+      final int parallelism,
+      final double ratePerSecond,
+      final UUID kbTenantId,
+      final Consumer<Result> listener)
+      throws PaymentPluginApiException {
+    final Set<UUID> kbPaymentIds = new LinkedHashSet<>();
+    final Set<Permission> permissions = new LinkedHashSet<>();
+    for (final Item item : items) {
+      kbPaymentIds.add(item.getKbPaymentId());
+      permissions.add(
+          item.getAmount() == null
+              ? Permission.PAYMENT_CAN_TRIGGER_PAYMENT
+              : Permission.PAYMENT_CAN_REFUND);
+    }
+    caller.checkPermissions(
+        killbillAPI.getSecurityApi(), ImmutableList.copyOf(permissions), kbTenantId);
+
+    final Map<UUID, AdyenResponsesRecord> purchases;
+    final Map<UUID, BigDecimal> refundedAmounts;
+    try {
+      purchases = adyenDao.getSuccessfulPurchaseResponses(kbPaymentIds, kbTenantId);
+      refundedAmounts = adyenDao.getRefundedAmounts(purchases.keySet(), kbTenantId);
+    } catch (final SQLException e) {
+      throw new PaymentPluginApiException("Unable to load the purchases", e);
+    }
+
+    final List<Result> results = new ArrayList<>(items.size());
+    final RateLimiter rateLimiter = ratePerSecond > 0 ? RateLimiter.create(ratePerSecond) : null;
+    final Map<UUID, Account> accounts = new ConcurrentHashMap<>();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, Math.min(parallelism, MAX_PARALLELISM)),
+            newThreadFactory(caller));
+    try {
+      final CompletionService<Result> completionService =
+          new ExecutorCompletionService<>(executor);
+      int submitted = 0;
+      final Set<UUID> requestedPayments = new HashSet<>();
+      for (final Item item : items) {
+        final AdyenResponsesRecord purchase = purchases.get(item.getKbPaymentId());
+        final String error =
+            requestedPayments.add(item.getKbPaymentId())
+                ? validate(item, purchase, refundedAmounts.get(item.getKbPaymentId()))
+                : "The payment is already part of the request";
+        if (error != null) {
+          publish(Result.error(item, error), results, listener);
+          continue;
+        }
+        completionService.submit(
+            () -> process(caller, item, purchase, kbTenantId, rateLimiter, accounts));
+        submitted++;
+      }
+      for (int i = 0; i < submitted; i++) {
+        publish(completionService.take().get(), results, listener);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PaymentPluginApiException(INTERNAL, "Interrupted bulk refund");
+    } catch (final ExecutionException e) {
+      throw new PaymentPluginApiException("Unexpected bulk refund error", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+
+  @Nullable
+  private static String validate(
+      final Item item,
+      @Nullable final AdyenResponsesRecord purchase,
+      @Nullable final BigDecimal refundedAmount) {
+    if (purchase == null) {
+      return "Purchase do not exists";
+    }
+    if (item.getAmount() == null) {
+      return null;
+    }
+    if (item.getAmount().signum() <= 0) {
+      return "The refund amount must be positive";
+    }
+    if (purchase.getAmount() == null) {
+      return null;
+    }
+    if (refundedAmount == null) {
+      if (purchase.getAmount().compareTo(item.getAmount()) < 0) {
+        return "The refund amount is more than the transaction amount";
+      }
+    } else if (purchase.getAmount().subtract(refundedAmount).compareTo(item.getAmount()) < 0) {
+      return "The refund amount is more than the amount left to refund";
+    }
+    return null;
+  }
+
+  private Result process(
+      final AdyenCaller caller,
+      final Item item,
+      final AdyenResponsesRecord purchase,
+      final UUID kbTenantId,
+      @Nullable final RateLimiter rateLimiter,
+      final Map<UUID, Account> accounts) {
+    if (!killbillAPI.getSecurityApi().isSubjectAuthenticated()) {
+      return Result.error(item, "Unable to log into Kill Bill as " + caller.getUsername());
+    }
+    if (rateLimiter != null) {
+      rateLimiter.acquire();
+    }
+    final UUID kbAccountId = UUID.fromString(purchase.getKbAccountId());
+    final CallContext context =
+        new PluginCallContext(
+            caller.getUsername(), clock.getClock().getUTCNow(), kbAccountId, kbTenantId);
+    try {
+      Account account = accounts.get(kbAccountId);
+      if (account == null) {
+        account = killbillAPI.getAccountUserApi().getAccountById(kbAccountId, context);
+        accounts.put(kbAccountId, account);
+      }
+
+      final Payment payment;
+      if (item.getAmount() == null) {
+        payment =
+            killbillAPI
+                .getPaymentApi()
+                .createVoid(
+                    account,
+                    item.getKbPaymentId(),
+                    context.getCreatedDate(),
+                    null,
+                    ImmutableList.of(),
+                    context);
+      } else {
+        payment =
+            killbillAPI
+                .getPaymentApi()
+                .createRefund(
+                    account,
+                    item.getKbPaymentId(),
+                    item.getAmount(),
+                    Currency.valueOf(purchase.getCurrency()),
+                    context.getCreatedDate(),
+                    null,
+                    ImmutableList.of(),
+                    context);
+      }
+      final PaymentTransaction transaction =
+          payment.getTransactions().get(payment.getTransactions().size() - 1);
+      return new Result(
+          item.getKbPaymentId(),
+          transaction.getId(),
+          transaction.getTransactionType(),
+          transaction.getTransactionStatus().toString(),
+          null);
+    } catch (final AccountApiException | PaymentApiException | RuntimeException e) {
+      logger.warn("Unable to refund payment {}", item.getKbPaymentId(), e);
+      return Result.error(item, e.getMessage());
+    }
+  }
+
+  private static void publish(
+      final Result result, final List<Result> results, final Consumer<Result> listener) {
+    results.add(result);
+    listener.accept(result);
+  }
+
+  /**
+   * Worker threads log into Kill Bill once, as the caller. Should that fail (e.g. the user was
+   * disabled meanwhile), their operations are reported as errors rather than attempted.
+   */
+  private ThreadFactory newThreadFactory(final AdyenCaller caller) {
+    final SecurityApi securityApi = killbillAPI.getSecurityApi();
+    final ThreadFactory threadFactory =
+        new ThreadFactoryBuilder()
+            .setNameFormat(AdyenActivator.PLUGIN_NAME + "-bulk-refund-%d")
+            .setDaemon(true)
+            .build();
+    return runnable ->
+        threadFactory.newThread(
+            () -> {
+              try {
+                caller.login(securityApi);
+              } catch (final RuntimeException e) {
+                logger.warn("Unable to log into Kill Bill as {}", caller.getUsername(), e);
+              }
+              try {
+                runnable.run();
+              } finally {
+                if (securityApi.isSubjectAuthenticated()) {
+                  securityApi.logout();
+                }
+              }
+            });
+  }
+
+  /** A payment to refund, or to void when there is no amount */
+  @Getter
+  @AllArgsConstructor
+  public static final class Item {
+
+    private final UUID kbPaymentId;
+    @Nullable private final BigDecimal amount;
+  }
+
+  @Getter
+  @AllArgsConstructor
+  public static final class Result {
+
+    private final UUID kbPaymentId;
+    @Nullable private final UUID kbTransactionId;
+    private final TransactionType transactionType;
+    // Kill Bill transaction status, or ERROR when the operation could not be attempted
+    private final String status;
+    @Nullable private final String error;
+
+    private static Result error(final Item item, final String error) {
+      return new Result(
+          item.getKbPaymentId(),
+          null,
+          item.getAmount() == null ? TransactionType.VOID : TransactionType.REFUND,
+          ERROR,
+          error);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core.resources;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.mvc.Body;
+import org.jooby.mvc.Header;
+import org.jooby.mvc.Local;
+import org.jooby.mvc.POST;
+import org.jooby.mvc.Path;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.plugin.core.PluginServlet;
+import org.killbill.billing.tenant.api.Tenant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk refunds and voids, e.g. {"parallelism": 4, "ratePerSecond": 10, "payments":
+ * [{"kbPaymentId": "...", "amount": 10.5}, {"kbPaymentId": "..."}]}, a payment without amount
+ * being voided. The response lists the result of every payment, in completion order.
+ *
+ * <p>The request must carry the Basic credentials of the Kill Bill user the operations are run
+ * as.
+ */
+@Singleton
+@Path("/refunds")
+public class AdyenBulkRefundServlet extends PluginServlet {
+  private static final Logger logger = LoggerFactory.getLogger(AdyenBulkRefundServlet.class);
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final AdyenBulkRefundService service;
+
+  @Inject
+  public AdyenBulkRefundServlet(final AdyenBulkRefundService service) {
+    this.service = service;
+  }
+
+  @POST
+  public Result refund(
+      @Body final String body,
+      @Header("Authorization") final Optional<String> authorization,
+      @Local @Named("killbill_tenant") final Tenant tenant)
+      throws PaymentPluginApiException, IOException {
+    final AdyenCaller caller = AdyenCaller.fromAuthorization(authorization);
+    final JsonNode request = objectMapper.readTree(body);
+    final JsonNode payments = request.path("payments");
+    if (!payments.isArray()) {
+      throw new IllegalArgumentException("payments is required");
+    }
+    final List<AdyenBulkRefundService.Item> items = new ArrayList<>(payments.size());
+    for (final JsonNode payment : payments) {
+      final JsonNode amount = payment.get("amount");
+      items.add(
+          new AdyenBulkRefundService.Item(
+              UUID.fromString(payment.path("kbPaymentId").asText()),
+              amount == null || amount.isNull() ? null : amount.decimalValue()));
+    }
+
+    final List<AdyenBulkRefundService.Result> results =
+        service.refund(
+            caller,
+            items,
+            request.path("parallelism").asInt(AdyenBulkRefundService.DEFAULT_PARALLELISM),
+            request.path("ratePerSecond").asDouble(0),
+            tenant.getId(),
+            result ->
+                logger.info(
+                    "Bulk {} of payment {}: {}",
+                    result.getTransactionType(),
+                    result.getKbPaymentId(),
+                    result.getStatus()));
+    return Results.ok(objectMapper.writeValueAsString(results)).type(MediaType.json);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.core.resources;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.Getter;
+import org.jooby.Err;
+import org.jooby.Status;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.security.Logical;
+import org.killbill.billing.security.Permission;
+import org.killbill.billing.security.SecurityApiException;
+import org.killbill.billing.security.api.SecurityApi;
+
+/**
+ * Kill Bill user calling a plugin route, from the Basic credentials of the request.
+ *
+ * <p>Kill Bill only resolves the tenant of the plugin routes, so the routes acting on behalf of a
+ * user (e.g. refunds) log the caller in themselves and check their permissions before doing
+ * anything.
+ */
+@Getter
+public final class AdyenCaller {
+
+  private static final String BASIC = "Basic ";
+
+  private final String username;
+  private final String password;
+
+  private AdyenCaller(final String username, final String password) {
+    this.username = username;
+    this.password = password;
+  }
+
+  /**
+   * @param authorization value of the Authorization header
+   * @throws Err 401 when there are no Basic credentials
+   */
+  public static AdyenCaller fromAuthorization(final Optional<String> authorization) {
+    if (!authorization.isPresent()
+        || !authorization.get().regionMatches(true, 0, BASIC, 0, BASIC.length())) {
+      throw new Err(Status.UNAUTHORIZED, "Basic credentials are required");
+    }
+    final String credentials;
+    try {
+      credentials =
+          new String(
+              Base64.getDecoder().decode(authorization.get().substring(BASIC.length()).trim()),
+              StandardCharsets.UTF_8);
+    } catch (final IllegalArgumentException e) {
+      throw new Err(Status.UNAUTHORIZED, "Invalid Basic credentials");
+    }
+    final int separator = credentials.indexOf(':');
+    if (separator <= 0) {
+      throw new Err(Status.UNAUTHORIZED, "Invalid Basic credentials");
+    }
+    return new AdyenCaller(
+        credentials.substring(0, separator), credentials.substring(separator + 1));
+  }
+
+  /**
+   * Logs the caller in on the current thread, which must log out once done.
+   *
+   * @throws Err 401 when Kill Bill rejects the credentials
+   */
+  public void login(final SecurityApi securityApi) {
+    try {
+      securityApi.login(username, password);
+    } catch (final RuntimeException e) {
+      throw new Err(Status.UNAUTHORIZED, "Invalid credentials", e);
+    }
+  }
+
+  /**
+   * Checks that the caller holds every permission on the tenant.
+   *
+   * @throws Err 401 when Kill Bill rejects the credentials, 403 when a permission is missing
+   */
+  public void checkPermissions(
+      final SecurityApi securityApi, final List<Permission> permissions, final UUID kbTenantId) {
+    login(securityApi);
+    try {
+      securityApi.checkCurrentUserPermissions(
+          permissions, Logical.AND, new PluginTenantContext(null, kbTenantId));
+    } catch (final SecurityApiException e) {
+      throw new Err(Status.FORBIDDEN, e.getMessage(), e);
+    } finally {
+      securityApi.logout();
+    }
+  }
+}
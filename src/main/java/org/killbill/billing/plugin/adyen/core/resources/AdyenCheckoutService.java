@@ -35,6 +35,7 @@ import org.killbill.billing.payment.api.PaymentApiException;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
 import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
 import org.killbill.billing.util.callcontext.CallContext;
 import org.slf4j.Logger;
@@ -57,11 +58,11 @@ public class AdyenCheckoutService {
       UUID kbAccountId, CallContext context, BigDecimal amount, UUID paymentMethodId, UUID tenantId)
       throws PaymentPluginApiException {
 
+    final AdyenConfigProperties adyenConfigProperties =
+        adyenConfigurationHandler.getConfigurable(tenantId);
     killbillAPI
         .getSecurityApi()
-        .login(
-            adyenConfigurationHandler.getConfigurable(tenantId).getUsername(),
-            adyenConfigurationHandler.getConfigurable(tenantId).getPassword());
+        .login(adyenConfigProperties.getUsername(), adyenConfigProperties.getPassword());
     Account kbAccount = null;
     Payment payment = null;
     try {
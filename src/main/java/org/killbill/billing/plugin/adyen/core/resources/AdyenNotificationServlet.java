@@ -18,10 +18,12 @@
 package org.killbill.billing.plugin.adyen.core.resources;
 
 import com.google.inject.Inject;
+import java.sql.SQLException;
 import java.util.UUID;
 import javax.inject.Singleton;
 import org.jooby.Result;
 import org.jooby.Results;
+import org.jooby.Status;
 import org.jooby.mvc.Body;
 import org.jooby.mvc.POST;
 import org.jooby.mvc.Path;
@@ -29,6 +31,7 @@ import org.killbill.billing.osgi.libs.killbill.OSGIKillbillClock;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
 import org.killbill.billing.plugin.adyen.core.AdyenActivator;
+import org.killbill.billing.plugin.adyen.core.AdyenNotificationQueueProcessor;
 import org.killbill.billing.plugin.api.PluginCallContext;
 import org.killbill.billing.plugin.core.resources.PluginHealthcheck;
 import org.killbill.billing.util.callcontext.CallContext;
@@ -41,17 +44,34 @@ public class AdyenNotificationServlet extends PluginHealthcheck {
   private static final Logger logger = LoggerFactory.getLogger(AdyenNotificationServlet.class);
   private final OSGIKillbillClock clock;
   private final AdyenPaymentPluginApi adyenPaymentPluginApi;
+  private final AdyenNotificationQueueProcessor notificationQueue;
 
   @Inject
   public AdyenNotificationServlet(
-      final OSGIKillbillClock clock, final AdyenPaymentPluginApi adyenPaymentPluginApi) {
+      final OSGIKillbillClock clock,
+      final AdyenPaymentPluginApi adyenPaymentPluginApi,
+      final AdyenNotificationQueueProcessor notificationQueue) {
     this.clock = clock;
     this.adyenPaymentPluginApi = adyenPaymentPluginApi;
+    this.notificationQueue = notificationQueue;
   }
 
   @POST
   public Result notificate(@Body String body) throws PaymentPluginApiException {
     logger.info("start notificate");
+    if (adyenPaymentPluginApi.isRejected(body)) {
+      logger.error("HMAC Key is not valid, notification rejected");
+      return Results.with(Status.UNAUTHORIZED);
+    }
+    try {
+      // Acknowledge as soon as the notification is stored, it is applied asynchronously
+      notificationQueue.enqueue(body);
+      return Results.ok("[accepted]");
+    } catch (SQLException e) {
+      // Fall back to synchronous processing rather than dropping the notification
+      logger.warn("Unable to queue the notification, processing it synchronously", e);
+    }
+
     final CallContext context =
         new PluginCallContext(
             AdyenActivator.PLUGIN_NAME,
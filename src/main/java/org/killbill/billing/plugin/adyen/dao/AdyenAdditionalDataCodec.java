@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
+import org.killbill.billing.plugin.adyen.client.exceptions.FormaterException;
+
+/**
+ * JSON encoding of the additional_data columns. The reader and writer are built once and shared:
+ * they are thread safe, and keep the serializers they resolve on first use.
+ *
+ * <p>Values can also be stored compressed: {@value #COMPRESSED_V1} followed by the Base64 of the
+ * deflated JSON, so that the columns keep their text type. {@link #read} accepts both formats.
+ */
+public final class AdyenAdditionalDataCodec {
+
+  /** Header of the compressed values, JSON objects cannot start with it */
+  public static final String COMPRESSED_V1 = "z1:";
+
+  private static final TypeReference<Map<String, String>> ADDITIONAL_DATA_TYPE =
+      new TypeReference<Map<String, String>>() {};
+
+  // Save space in the database
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().setSerializationInclusion(Include.NON_EMPTY);
+  private static final ObjectReader READER = MAPPER.readerFor(ADDITIONAL_DATA_TYPE);
+  private static final ObjectWriter WRITER = MAPPER.writerFor(ADDITIONAL_DATA_TYPE);
+  private static final ObjectWriter VALUE_WRITER = MAPPER.writer();
+
+  private AdyenAdditionalDataCodec() {}
+
+  /** @return the JSON of the map, or null if it is null or empty */
+  @Nullable
+  public static String write(@Nullable final Map<String, String> additionalData)
+      throws SQLException {
+    return write(additionalData, false);
+  }
+
+  /**
+   * @param compress whether to store the value compressed, which is only done when it is shorter
+   * @return the encoded map, or null if it is null or empty
+   */
+  @Nullable
+  public static String write(
+      @Nullable final Map<String, String> additionalData, final boolean compress)
+      throws SQLException {
+    if (additionalData == null || additionalData.isEmpty()) {
+      return null;
+    }
+    try {
+      if (!compress) {
+        return WRITER.writeValueAsString(additionalData);
+      }
+      final byte[] json = WRITER.writeValueAsBytes(additionalData);
+      final String compressed = COMPRESSED_V1 + Base64.getEncoder().encodeToString(deflate(json));
+      // Small maps do not compress enough to make up for the Base64 overhead
+      return compressed.length() < json.length
+          ? compressed
+          : new String(json, StandardCharsets.UTF_8);
+    } catch (final IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  /** For the values which are not a map of strings */
+  public static String writeValue(final Object value) throws SQLException {
+    try {
+      return VALUE_WRITER.writeValueAsString(value);
+    } catch (final JsonProcessingException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  /** @return the map of the JSON or compressed value, empty if it is null */
+  public static Map<String, String> read(@Nullable final String additionalData) {
+    if (additionalData == null) {
+      return ImmutableMap.of();
+    }
+    try {
+      if (isCompressed(additionalData)) {
+        final byte[] deflated =
+            Base64.getDecoder().decode(additionalData.substring(COMPRESSED_V1.length()));
+        try (final InputStream json = new InflaterInputStream(new ByteArrayInputStream(deflated))) {
+          return READER.readValue(json);
+        }
+      }
+      return READER.readValue(additionalData);
+    } catch (final IOException e) {
+      throw new FormaterException(e);
+    }
+  }
+
+  public static boolean isCompressed(@Nullable final String additionalData) {
+    return additionalData != null && additionalData.startsWith(COMPRESSED_V1);
+  }
+
+  private static byte[] deflate(final byte[] json) throws IOException {
+    final Deflater deflater = new Deflater();
+    final ByteArrayOutputStream deflated = new ByteArrayOutputStream(json.length / 2);
+    try (final DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater)) {
+      out.write(json);
+    } finally {
+      // Frees the native memory now rather than on finalization
+      deflater.end();
+    }
+    return deflated.toByteArray();
+  }
+}
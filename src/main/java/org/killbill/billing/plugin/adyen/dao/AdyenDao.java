@@ -17,33 +17,54 @@
 
 package org.killbill.billing.plugin.adyen.dao;
 
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests.ADYEN_HPP_REQUESTS;
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications.ADYEN_NOTIFICATIONS;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods.ADYEN_PAYMENT_METHODS;
 import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES;
 
 import com.adyen.model.notification.NotificationRequestItem;
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import org.joda.time.DateTime;
 import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.Record4;
+import org.jooq.Result;
+import org.jooq.Row4;
+import org.jooq.TableField;
 import org.jooq.impl.DSL;
+import org.jooq.types.ULong;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.TransactionType;
 import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
 import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
-import org.killbill.billing.plugin.adyen.client.exceptions.FormaterException;
+import org.killbill.billing.plugin.adyen.core.AdyenMetrics;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationQueueRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
@@ -53,13 +74,119 @@ public class AdyenDao
     extends PluginPaymentDao<
         AdyenResponsesRecord, AdyenResponses, AdyenPaymentMethodsRecord, AdyenPaymentMethods> {
 
+  public static final String QUEUE_AVAILABLE = "AVAILABLE";
+  public static final String QUEUE_IN_PROCESSING = "IN_PROCESSING";
+  public static final String QUEUE_FAILED = "FAILED";
+
+  private static final long PAYMENT_METHOD_CACHE_MAX_SIZE = 10000;
+  private static final long PAYMENT_METHOD_CACHE_TTL_MINUTES = 5;
+  private static final long APPLIED_NOTIFICATIONS_CACHE_MAX_SIZE = 100000;
+
+  // Keyed by kb_payment_method_id, the tenant is checked on read. Records are shared, callers must
+  // not modify them.
+  private final Cache<UUID, AdyenPaymentMethodsRecord> paymentMethodCache =
+      CacheBuilder.newBuilder()
+          .maximumSize(PAYMENT_METHOD_CACHE_MAX_SIZE)
+          .expireAfterWrite(PAYMENT_METHOD_CACHE_TTL_MINUTES, TimeUnit.MINUTES)
+          .recordStats()
+          .build();
+
+  // Keys (tenant, psp reference, event code and success, as the unique index of the table) of the
+  // notification items known to be in adyen_notifications, see isNotificationApplied
+  private final Cache<String, Boolean> appliedNotifications =
+      CacheBuilder.newBuilder().maximumSize(APPLIED_NOTIFICATIONS_CACHE_MAX_SIZE).build();
+
+  private final AdyenMetrics metrics = AdyenMetrics.getInstance();
+  private final boolean compressAdditionalData;
+
   public AdyenDao(final DataSource dataSource) throws SQLException {
+    this(dataSource, false);
+  }
+
+  /** @param compressAdditionalData whether to write the additional_data columns compressed */
+  public AdyenDao(final DataSource dataSource, final boolean compressAdditionalData)
+      throws SQLException {
     super(ADYEN_RESPONSES, ADYEN_PAYMENT_METHODS, dataSource);
-    // Save space in the database
-    objectMapper.setSerializationInclusion(Include.NON_EMPTY);
+    this.compressAdditionalData = compressAdditionalData;
   }
 
   // Payment methods
+
+  /** Cached, recurring billing runs charge the same payment methods every cycle */
+  @Override
+  public AdyenPaymentMethodsRecord getPaymentMethod(
+      final UUID kbPaymentMethodId, final UUID kbTenantId) throws SQLException {
+    final AdyenPaymentMethodsRecord cached = paymentMethodCache.getIfPresent(kbPaymentMethodId);
+    if (cached != null && kbTenantId.toString().equals(cached.getKbTenantId())) {
+      return cached;
+    }
+    final long startNanos = System.nanoTime();
+    final AdyenPaymentMethodsRecord record;
+    try {
+      record = super.getPaymentMethod(kbPaymentMethodId, kbTenantId);
+    } finally {
+      metrics.recordDaoQuery("getPaymentMethod", System.nanoTime() - startNanos);
+    }
+    if (record != null) {
+      paymentMethodCache.put(kbPaymentMethodId, record);
+    }
+    return record;
+  }
+
+  public CacheStats getPaymentMethodCacheStats() {
+    return paymentMethodCache.stats();
+  }
+
+  public long getPaymentMethodCacheSize() {
+    return paymentMethodCache.size();
+  }
+
+  @Override
+  public void addPaymentMethod(
+      final UUID kbAccountId,
+      final UUID kbPaymentMethodId,
+      final boolean isDefault,
+      final Map<String, String> additionalDataMap,
+      final DateTime utcNow,
+      final UUID kbTenantId)
+      throws SQLException {
+    super.addPaymentMethod(
+        kbAccountId, kbPaymentMethodId, isDefault, additionalDataMap, utcNow, kbTenantId);
+    invalidatePaymentMethods(kbAccountId, kbTenantId);
+  }
+
+  /** Also clears the default flag of the other payment methods of the account */
+  @Override
+  public void setDefaultPaymentMethod(
+      final UUID kbAccountId,
+      final UUID kbPaymentMethodId,
+      final DateTime utcNow,
+      final UUID kbTenantId)
+      throws SQLException {
+    super.setDefaultPaymentMethod(kbAccountId, kbPaymentMethodId, utcNow, kbTenantId);
+    invalidatePaymentMethods(kbAccountId, kbTenantId);
+  }
+
+  @Override
+  public void deletePaymentMethod(
+      final UUID kbPaymentMethodId, final DateTime utcNow, final UUID kbTenantId)
+      throws SQLException {
+    super.deletePaymentMethod(kbPaymentMethodId, utcNow, kbTenantId);
+    paymentMethodCache.invalidate(kbPaymentMethodId);
+  }
+
+  private void invalidatePaymentMethods(final UUID kbAccountId, final UUID kbTenantId) {
+    final String accountId = kbAccountId.toString();
+    final String tenantId = kbTenantId.toString();
+    paymentMethodCache
+        .asMap()
+        .values()
+        .removeIf(
+            record ->
+                accountId.equals(record.getKbAccountId())
+                    && tenantId.equals(record.getKbTenantId()));
+  }
+
   public void addPaymentMethod(
       final UUID kbAccountId,
       final UUID kbPaymentMethodId,
@@ -71,6 +198,7 @@ public class AdyenDao
     final Map<String, String> clonedProperties = new HashMap<>(additionalDataMap);
 
     execute(
+        "addPaymentMethod",
         dataSource.getConnection(),
         new WithConnectionCallback<AdyenResponsesRecord>() {
 
@@ -92,7 +220,7 @@ public class AdyenDao
                     kbAccountId.toString(),
                     kbPaymentMethodId.toString(),
                     (short) FALSE,
-                    asString(clonedProperties),
+                    AdyenAdditionalDataCodec.write(clonedProperties, compressAdditionalData),
                     (short) fromBoolean(isRecurring),
                     toLocalDateTime(new DateTime()),
                     toLocalDateTime(new DateTime()),
@@ -103,11 +231,13 @@ public class AdyenDao
             return null;
           }
         });
+    paymentMethodCache.invalidate(kbPaymentMethodId);
   }
 
   public void updateIsDeletePaymentMethod(final UUID kbPaymentMethodId, final UUID kbTenantId)
       throws SQLException {
     execute(
+        "updateIsDeletePaymentMethod",
         dataSource.getConnection(),
         new WithConnectionCallback<AdyenPaymentMethodsRecord>() {
           @Override
@@ -125,53 +255,13 @@ public class AdyenDao
             return null;
           }
         });
-  }
-
-  public void updateRecurringDetailsPaymentMethod(
-      final UUID kbPaymentMethodId, final UUID kbTenantId, final String recurringData)
-      throws SQLException {
-    execute(
-        dataSource.getConnection(),
-        new WithConnectionCallback<AdyenPaymentMethodsRecord>() {
-          @Override
-          public AdyenPaymentMethodsRecord withConnection(final Connection conn)
-              throws SQLException {
-
-            DSL.using(conn, dialect, settings)
-                .update(ADYEN_PAYMENT_METHODS)
-                .set(ADYEN_PAYMENT_METHODS.RECURRING_DETAIL_REFERENCE, recurringData)
-                .where(
-                    ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
-                .and(ADYEN_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
-                .execute();
-            return null;
-          }
-        });
-  }
-
-  public void updateResponse(UUID kbPaymentId, ProcessorOutputDTO outputDTO, UUID tenantId)
-      throws SQLException {
-    execute(
-        dataSource.getConnection(),
-        new WithConnectionCallback<AdyenResponsesRecord>() {
-          @Override
-          public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-
-            DSL.using(conn, dialect, settings)
-                .update(ADYEN_RESPONSES)
-                .set(ADYEN_RESPONSES.PSP_REFERENCE, outputDTO.getPspReferenceCode())
-                .set(ADYEN_RESPONSES.TRANSACTION_STATUS, outputDTO.getStatus().name())
-                .where(ADYEN_RESPONSES.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
-                .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(tenantId.toString()))
-                .execute();
-            return null;
-          }
-        });
+    paymentMethodCache.invalidate(kbPaymentMethodId);
   }
 
   public AdyenPaymentMethodsRecord getPaymentMethodsByMethodId(final UUID paymentMethodId)
       throws SQLException {
     return execute(
+        "getPaymentMethodsByMethodId",
         dataSource.getConnection(),
         new WithConnectionCallback<AdyenPaymentMethodsRecord>() {
           @Override
@@ -207,170 +297,490 @@ public class AdyenDao
       ProcessorOutputDTO outputDTO,
       UUID tenantId)
       throws SQLException {
-    String tempCurrency = (currency != null) ? currency.name() : null;
-
-    final BigDecimal dbAmount = (amount != null) ? new BigDecimal(amount.toString()) : null;
-    final String dbCurrency = tempCurrency;
-
     return execute(
+        "addResponse",
         dataSource.getConnection(),
-        conn ->
-            DSL.using(conn, dialect, settings)
-                .transactionResult(
-                    configuration -> {
-                      final DSLContext dslContext = DSL.using(conn, dialect, settings);
-                      dslContext
-                          .insertInto(
-                              ADYEN_RESPONSES,
-                              ADYEN_RESPONSES.KB_ACCOUNT_ID,
-                              ADYEN_RESPONSES.KB_PAYMENT_ID,
-                              ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
-                              ADYEN_RESPONSES.TRANSACTION_TYPE,
-                              ADYEN_RESPONSES.TRANSACTION_STATUS,
-                              ADYEN_RESPONSES.SESSION_ID,
-                              ADYEN_RESPONSES.REFERENCE,
-                              ADYEN_RESPONSES.AMOUNT,
-                              ADYEN_RESPONSES.CURRENCY,
-                              ADYEN_RESPONSES.ADDITIONAL_DATA,
-                              ADYEN_RESPONSES.CREATED_DATE,
-                              ADYEN_RESPONSES.KB_TENANT_ID)
-                          .values(
-                              kbAccountId.toString(),
-                              kbPaymentId.toString(),
-                              kbTransactionId.toString(),
-                              transactionType.toString(),
-                              status.toString(),
-                              sessionId,
-                              outputDTO.getSecondPaymentReferenceId(),
-                              dbAmount,
-                              dbCurrency,
-                              outputDTO.getAdditionalData() != null
-                                  ? (asString(outputDTO.getAdditionalData()))
-                                  : null,
-                              toLocalDateTime(DateTime.now()),
-                              tenantId.toString())
-                          .execute();
-
-                      return dslContext.fetchOne(
-                          ADYEN_RESPONSES,
-                          ADYEN_RESPONSES.RECORD_ID.eq(
-                              ADYEN_RESPONSES
-                                  .RECORD_ID
-                                  .getDataType()
-                                  .convert(dslContext.lastID())));
-                    }));
-  }
-
-  public AdyenNotificationsRecord addNotification(
-      UUID kbAccountId,
-      UUID kbPaymentId,
-      UUID kbTransactionId,
-      NotificationRequestItem item,
-      UUID tenantId)
+        conn -> {
+          final AdyenResponsesRecord record =
+              DSL.using(conn, dialect, settings).newRecord(ADYEN_RESPONSES);
+          record.setKbAccountId(kbAccountId.toString());
+          record.setKbPaymentId(kbPaymentId.toString());
+          record.setKbPaymentTransactionId(kbTransactionId.toString());
+          record.setTransactionType(transactionType.toString());
+          record.setTransactionStatus(status.toString());
+          record.setSessionId(sessionId);
+          record.setReference(outputDTO.getSecondPaymentReferenceId());
+          record.setPspErrorCodes(outputDTO.getGatewayErrorCode());
+          record.setAmount(amount != null ? new BigDecimal(amount.toString()) : null);
+          record.setCurrency(currency != null ? currency.name() : null);
+          record.setAdditionalData(
+              AdyenAdditionalDataCodec.write(
+                  outputDTO.getAdditionalData(), compressAdditionalData));
+          record.setCreatedDate(toLocalDateTime(DateTime.now()));
+          record.setKbTenantId(tenantId.toString());
+          // The generated record_id is read back from the insert itself (generated keys or
+          // RETURNING, depending on the dialect), no need to select the row again
+          record.insert();
+          return record;
+        });
+  }
+
+  /**
+   * Whether the notification item was recently applied by {@link #applyNotifications} for one of
+   * the tenants. Adyen redelivers notifications it did not get an acknowledgement for in time, such
+   * redeliveries can be acknowledged right away. Only a hint: a miss does not mean the item was
+   * never applied.
+   *
+   * @param kbTenantIds tenants the item may be for, e.g. the ones whose key accepts its signature
+   */
+  public boolean isNotificationApplied(
+      final NotificationRequestItem item, final Collection<UUID> kbTenantIds) {
+    for (final UUID kbTenantId : kbTenantIds) {
+      if (appliedNotifications.getIfPresent(notificationKey(kbTenantId.toString(), item))
+          != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Items of the batch already in adyen_notifications (same tenant, psp reference, event code and
+   * success), in one query on the unique key, so that redeliveries are recognized before any
+   * Kill Bill call. Every item must have a response for its merchant reference, see {@link
+   * #getResponsesFromMerchantReferences}.
+   */
+  public List<NotificationRequestItem> getAppliedNotifications(
+      final List<NotificationRequestItem> items,
+      final Map<String, AdyenResponsesRecord> responsesByMerchantReference)
       throws SQLException {
-    String tempCurrency =
-        (item.getAmount().getCurrency() != null)
-            ? Currency.fromCode(item.getAmount().getCurrency()).toString()
-            : null;
-
-    final BigDecimal dbAmount =
-        (item.getAmount().getDecimalValue() != null)
-            ? new BigDecimal(item.getAmount().getDecimalValue().toString())
-            : null;
-    final String dbCurrency = tempCurrency;
-    Short success = (short) (item.isSuccess() ? 1 : 0);
-    return execute(
-        dataSource.getConnection(),
-        conn ->
-            DSL.using(conn, dialect, settings)
-                .transactionResult(
-                    configuration -> {
-                      final DSLContext dslContext = DSL.using(conn, dialect, settings);
-                      dslContext
-                          .insertInto(
-                              ADYEN_NOTIFICATIONS,
-                              ADYEN_NOTIFICATIONS.KB_ACCOUNT_ID,
-                              ADYEN_NOTIFICATIONS.KB_PAYMENT_ID,
-                              ADYEN_NOTIFICATIONS.KB_PAYMENT_TRANSACTION_ID,
-                              ADYEN_NOTIFICATIONS.SUCCESS,
-                              ADYEN_NOTIFICATIONS.EVENT_CODE,
-                              ADYEN_NOTIFICATIONS.MERCHANT_ACCOUNT_CODE,
-                              ADYEN_NOTIFICATIONS.MERCHANT_REFERENCE,
-                              ADYEN_NOTIFICATIONS.ORIGINAL_REFERENCE,
-                              ADYEN_NOTIFICATIONS.REASON,
-                              ADYEN_NOTIFICATIONS.PSP_REFERENCE,
-                              ADYEN_NOTIFICATIONS.AMOUNT,
-                              ADYEN_NOTIFICATIONS.CURRENCY,
-                              ADYEN_NOTIFICATIONS.CREATED_DATE,
-                              ADYEN_NOTIFICATIONS.ADDITIONAL_DATA,
-                              ADYEN_NOTIFICATIONS.KB_TENANT_ID)
-                          .values(
-                              kbAccountId.toString(),
-                              kbPaymentId.toString(),
-                              kbTransactionId.toString(),
-                              success,
-                              item.getEventCode(),
-                              item.getMerchantAccountCode(),
-                              item.getMerchantReference(),
-                              item.getOriginalReference(),
-                              item.getReason(),
-                              item.getPspReference(),
-                              dbAmount,
-                              dbCurrency,
-                              toLocalDateTime(DateTime.now()),
-                              item.getAdditionalData() != null
-                                  ? (asString(item.getAdditionalData()))
-                                  : null,
-                              tenantId.toString())
-                          .execute();
-                      return dslContext.fetchOne(
-                          ADYEN_NOTIFICATIONS,
-                          ADYEN_NOTIFICATIONS.RECORD_ID.eq(
-                              ADYEN_RESPONSES
-                                  .RECORD_ID
-                                  .getDataType()
-                                  .convert(dslContext.lastID())));
-                    }));
+    if (items.isEmpty()) {
+      return ImmutableList.of();
+    }
+    final List<Row4<String, String, String, Short>> keys = new ArrayList<>(items.size());
+    for (final NotificationRequestItem item : items) {
+      keys.add(
+          DSL.row(
+              responsesByMerchantReference.get(item.getMerchantReference()).getKbTenantId(),
+              item.getPspReference(),
+              item.getEventCode(),
+              (short) (item.isSuccess() ? 1 : 0)));
+    }
+    final Set<String> appliedKeys =
+        execute(
+            "getAppliedNotifications",
+            dataSource.getConnection(),
+            conn -> {
+              final Set<String> applied = new HashSet<>();
+              for (final Record4<String, String, String, Short> record :
+                  DSL.using(conn, dialect, settings)
+                      .select(
+                          ADYEN_NOTIFICATIONS.KB_TENANT_ID,
+                          ADYEN_NOTIFICATIONS.PSP_REFERENCE,
+                          ADYEN_NOTIFICATIONS.EVENT_CODE,
+                          ADYEN_NOTIFICATIONS.SUCCESS)
+                      .from(ADYEN_NOTIFICATIONS)
+                      .where(
+                          DSL.row(
+                                  ADYEN_NOTIFICATIONS.KB_TENANT_ID,
+                                  ADYEN_NOTIFICATIONS.PSP_REFERENCE,
+                                  ADYEN_NOTIFICATIONS.EVENT_CODE,
+                                  ADYEN_NOTIFICATIONS.SUCCESS)
+                              .in(keys))
+                      .fetch()) {
+                applied.add(
+                    record.value1()
+                        + '|'
+                        + record.value2()
+                        + '|'
+                        + record.value3()
+                        + '|'
+                        + (record.value4() != 0));
+              }
+              return applied;
+            });
+    final List<NotificationRequestItem> appliedItems = new ArrayList<>();
+    for (final NotificationRequestItem item : items) {
+      final String tenant =
+          responsesByMerchantReference.get(item.getMerchantReference()).getKbTenantId();
+      if (appliedKeys.contains(notificationKey(tenant, item))) {
+        appliedItems.add(item);
+        appliedNotifications.put(notificationKey(tenant, item), Boolean.TRUE);
+      }
+    }
+    return appliedItems;
+  }
+
+  /**
+   * Applies a webhook batch in a single transaction: the response status changes, the notification
+   * rows and the recurring detail references. Every item must have a response for its merchant
+   * reference, see {@link #getResponsesFromMerchantReferences}.
+   *
+   * <p>Items already in adyen_notifications (same tenant, psp reference, event code and success)
+   * are skipped, and so are their recurring detail references and the status changes of the
+   * merchant references without any new item.
+   *
+   * @param responseUpdates new psp reference and status, by merchant reference
+   * @param recurringDetailReferences recurring detail reference to store, by item
+   * @return the items which were not applied before
+   */
+  public List<NotificationRequestItem> applyNotifications(
+      final List<NotificationRequestItem> items,
+      final Map<String, AdyenResponsesRecord> responsesByMerchantReference,
+      final Map<String, ProcessorOutputDTO> responseUpdates,
+      final Map<NotificationRequestItem, RecurringDetailReference> recurringDetailReferences)
+      throws SQLException {
+    if (items.isEmpty()) {
+      return ImmutableList.of();
+    }
+    final List<NotificationRequestItem> newItems =
+        execute(
+            "applyNotifications",
+            dataSource.getConnection(),
+            conn ->
+                DSL.using(conn, dialect, settings)
+                    .transactionResult(
+                        configuration -> {
+                          final DSLContext dslContext = DSL.using(conn, dialect, settings);
+                          // One statement per row rather than a JDBC batch: drivers do not all
+                          // report the update count of each statement of a batch, and it tells
+                          // whether the row was a duplicate
+                          final List<NotificationRequestItem> inserted =
+                              new ArrayList<>(items.size());
+                          for (final NotificationRequestItem item : items) {
+                            final AdyenResponsesRecord response =
+                                responsesByMerchantReference.get(item.getMerchantReference());
+                            final int count =
+                                dslContext
+                                    .insertInto(ADYEN_NOTIFICATIONS)
+                                    .set(
+                                        newNotificationRecord(
+                                            dslContext,
+                                            response.getKbAccountId(),
+                                            response.getKbPaymentId(),
+                                            response.getKbPaymentTransactionId(),
+                                            response.getKbTenantId(),
+                                            item))
+                                    .onDuplicateKeyIgnore()
+                                    .execute();
+                            if (count > 0) {
+                              inserted.add(item);
+                            }
+                          }
+
+                          final Set<String> updatedMerchantReferences = new HashSet<>();
+                          for (final NotificationRequestItem item : inserted) {
+                            updatedMerchantReferences.add(item.getMerchantReference());
+                          }
+                          for (final String merchantReference : updatedMerchantReferences) {
+                            final ProcessorOutputDTO update =
+                                responseUpdates.get(merchantReference);
+                            if (update == null) {
+                              continue;
+                            }
+                            final AdyenResponsesRecord response =
+                                responsesByMerchantReference.get(merchantReference);
+                            dslContext
+                                .update(ADYEN_RESPONSES)
+                                .set(ADYEN_RESPONSES.PSP_REFERENCE, update.getPspReferenceCode())
+                                .set(ADYEN_RESPONSES.TRANSACTION_STATUS, update.getStatus().name())
+                                .where(ADYEN_RESPONSES.KB_TENANT_ID.equal(response.getKbTenantId()))
+                                .and(
+                                    ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.equal(
+                                        response.getKbPaymentTransactionId()))
+                                .execute();
+                          }
+
+                          for (final NotificationRequestItem item : inserted) {
+                            final RecurringDetailReference reference =
+                                recurringDetailReferences.get(item);
+                            if (reference == null) {
+                              continue;
+                            }
+                            dslContext
+                                .update(ADYEN_PAYMENT_METHODS)
+                                .set(
+                                    ADYEN_PAYMENT_METHODS.RECURRING_DETAIL_REFERENCE,
+                                    reference.getRecurringDetailReference())
+                                .where(
+                                    ADYEN_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(
+                                        reference.getKbPaymentMethodId().toString()))
+                                .and(
+                                    ADYEN_PAYMENT_METHODS.KB_TENANT_ID.equal(
+                                        reference.getKbTenantId().toString()))
+                                .execute();
+                          }
+                          return inserted;
+                        }));
+    for (final NotificationRequestItem item : newItems) {
+      final RecurringDetailReference reference = recurringDetailReferences.get(item);
+      if (reference != null) {
+        paymentMethodCache.invalidate(reference.getKbPaymentMethodId());
+      }
+    }
+    // Duplicates included, they are in the table as well
+    for (final NotificationRequestItem item : items) {
+      appliedNotifications.put(
+          notificationKey(
+              responsesByMerchantReference.get(item.getMerchantReference()).getKbTenantId(), item),
+          Boolean.TRUE);
+    }
+    return newItems;
+  }
+
+  private static String notificationKey(
+      final String kbTenantId, final NotificationRequestItem item) {
+    return kbTenantId
+        + '|'
+        + item.getPspReference()
+        + '|'
+        + item.getEventCode()
+        + '|'
+        + item.isSuccess();
+  }
+
+  /** Recurring detail reference a notification item brings for a payment method */
+  @Getter
+  @AllArgsConstructor
+  public static final class RecurringDetailReference {
+
+    private final UUID kbTenantId;
+    private final UUID kbPaymentMethodId;
+    private final String recurringDetailReference;
   }
 
+  private AdyenNotificationsRecord newNotificationRecord(
+      final DSLContext dslContext,
+      final String kbAccountId,
+      final String kbPaymentId,
+      final String kbTransactionId,
+      final String kbTenantId,
+      final NotificationRequestItem item)
+      throws SQLException {
+    final AdyenNotificationsRecord record = dslContext.newRecord(ADYEN_NOTIFICATIONS);
+    record.setKbAccountId(kbAccountId);
+    record.setKbPaymentId(kbPaymentId);
+    record.setKbPaymentTransactionId(kbTransactionId);
+    record.setSuccess((short) (item.isSuccess() ? 1 : 0));
+    record.setEventCode(item.getEventCode());
+    record.setMerchantAccountCode(item.getMerchantAccountCode());
+    record.setMerchantReference(item.getMerchantReference());
+    record.setOriginalReference(item.getOriginalReference());
+    record.setReason(item.getReason());
+    record.setPspReference(item.getPspReference());
+    if (item.getAmount() != null) {
+      record.setAmount(
+          item.getAmount().getDecimalValue() != null
+              ? new BigDecimal(item.getAmount().getDecimalValue().toString())
+              : null);
+      record.setCurrency(
+          item.getAmount().getCurrency() != null
+              ? Currency.fromCode(item.getAmount().getCurrency()).toString()
+              : null);
+    }
+    record.setCreatedDate(toLocalDateTime(DateTime.now()));
+    record.setAdditionalData(
+        AdyenAdditionalDataCodec.write(item.getAdditionalData(), compressAdditionalData));
+    record.setKbTenantId(kbTenantId);
+    return record;
+  }
+
+  /**
+   * Returns the purchase of a payment, as long as it was not refused: refunds and voids only need
+   * this row, however many follow-up transactions the payment has.
+   */
   public AdyenResponsesRecord getSuccessfulPurchaseResponse(
       final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
     return execute(
+        "getSuccessfulPurchaseResponse",
         dataSource.getConnection(),
         new WithConnectionCallback<AdyenResponsesRecord>() {
           @Override
           public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
             return DSL.using(conn, dialect, settings)
                 .selectFrom(ADYEN_RESPONSES)
-                .where(DSL.field(ADYEN_RESPONSES.KB_PAYMENT_ID).equal(kbPaymentId.toString()))
-                .and(DSL.field(ADYEN_RESPONSES.KB_TENANT_ID).equal(kbTenantId.toString()))
-                //                .and(DSL.field(ADYEN_RESPONSES.TRANSACTION_TYPE).equal(PURCHASE))
+                .where(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                .and(ADYEN_RESPONSES.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
+                .and(ADYEN_RESPONSES.TRANSACTION_TYPE.equal(TransactionType.PURCHASE.toString()))
+                // PENDING until the AUTHORISATION notification is received
+                .and(
+                    ADYEN_RESPONSES.TRANSACTION_STATUS.in(
+                        PaymentPluginStatus.PROCESSED.toString(),
+                        PaymentPluginStatus.PENDING.toString()))
                 .orderBy(ADYEN_RESPONSES.RECORD_ID)
+                .limit(1)
                 .fetchOne();
           }
         });
   }
 
-  public AdyenResponsesRecord getResponseFromMerchantReference(final String merchantReference)
+  /**
+   * Same as {@link #getSuccessfulPurchaseResponse(UUID, UUID)} for several payments, in one query.
+   * Payments without such a purchase are absent from the returned map.
+   */
+  public Map<UUID, AdyenResponsesRecord> getSuccessfulPurchaseResponses(
+      final Collection<UUID> kbPaymentIds, final UUID kbTenantId) throws SQLException {
+    if (kbPaymentIds.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    final List<String> paymentIds = new ArrayList<>(kbPaymentIds.size());
+    for (final UUID kbPaymentId : kbPaymentIds) {
+      paymentIds.add(kbPaymentId.toString());
+    }
+    return execute(
+        "getSuccessfulPurchaseResponses",
+        dataSource.getConnection(),
+        conn -> {
+          final Map<UUID, AdyenResponsesRecord> responses = new HashMap<>();
+          for (final AdyenResponsesRecord record :
+              DSL.using(conn, dialect, settings)
+                  .selectFrom(ADYEN_RESPONSES)
+                  .where(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                  .and(ADYEN_RESPONSES.KB_PAYMENT_ID.in(paymentIds))
+                  .and(ADYEN_RESPONSES.TRANSACTION_TYPE.equal(TransactionType.PURCHASE.toString()))
+                  .and(
+                      ADYEN_RESPONSES.TRANSACTION_STATUS.in(
+                          PaymentPluginStatus.PROCESSED.toString(),
+                          PaymentPluginStatus.PENDING.toString()))
+                  .orderBy(ADYEN_RESPONSES.RECORD_ID)
+                  .fetch()) {
+            responses.putIfAbsent(UUID.fromString(record.getKbPaymentId()), record);
+          }
+          return responses;
+        });
+  }
+
+  /**
+   * Amounts refunded so far (refunds not refused) of several payments, in one query. Payments
+   * without refund are absent from the returned map.
+   */
+  public Map<UUID, BigDecimal> getRefundedAmounts(
+      final Collection<UUID> kbPaymentIds, final UUID kbTenantId) throws SQLException {
+    if (kbPaymentIds.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    final List<String> paymentIds = new ArrayList<>(kbPaymentIds.size());
+    for (final UUID kbPaymentId : kbPaymentIds) {
+      paymentIds.add(kbPaymentId.toString());
+    }
+    return execute(
+        "getRefundedAmounts",
+        dataSource.getConnection(),
+        conn -> {
+          final Map<UUID, BigDecimal> refunded = new HashMap<>();
+          for (final Record2<String, BigDecimal> record :
+              DSL.using(conn, dialect, settings)
+                  .select(ADYEN_RESPONSES.KB_PAYMENT_ID, DSL.sum(ADYEN_RESPONSES.AMOUNT))
+                  .from(ADYEN_RESPONSES)
+                  .where(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                  .and(ADYEN_RESPONSES.KB_PAYMENT_ID.in(paymentIds))
+                  .and(ADYEN_RESPONSES.TRANSACTION_TYPE.equal(TransactionType.REFUND.toString()))
+                  .and(
+                      ADYEN_RESPONSES.TRANSACTION_STATUS.in(
+                          PaymentPluginStatus.PROCESSED.toString(),
+                          PaymentPluginStatus.PENDING.toString()))
+                  .groupBy(ADYEN_RESPONSES.KB_PAYMENT_ID)
+                  .fetch()) {
+            if (record.value2() != null) {
+              refunded.put(UUID.fromString(record.value1()), record.value2());
+            }
+          }
+          return refunded;
+        });
+  }
+
+  /**
+   * First response Adyen gave to the Kill Bill transaction, if any: requests without response (no
+   * reference from Adyen) are not recorded as answered, so that they can be retried.
+   */
+  public AdyenResponsesRecord getAnsweredResponse(final UUID kbTransactionId, final UUID kbTenantId)
       throws SQLException {
     return execute(
+        "getAnsweredResponse",
         dataSource.getConnection(),
-        new WithConnectionCallback<AdyenResponsesRecord>() {
-          @Override
-          public AdyenResponsesRecord withConnection(final Connection conn) throws SQLException {
-            return DSL.using(conn, dialect, settings)
+        conn ->
+            DSL.using(conn, dialect, settings)
                 .selectFrom(ADYEN_RESPONSES)
-                .where(
-                    DSL.field(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID).equal(merchantReference))
+                .where(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.equal(kbTransactionId.toString()))
+                .and(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                .and(ADYEN_RESPONSES.SESSION_ID.isNotNull())
+                // Served by adyen_responses_kb_payment_transaction_id_record_id
                 .orderBy(ADYEN_RESPONSES.RECORD_ID)
-                .fetchOne();
+                .limit(1)
+                .fetchOne());
+  }
+
+  /**
+   * Looks up the responses of several merchant references (Kill Bill transaction ids) in one
+   * query, among the responses of the given tenants only: a merchant reference comes from the
+   * notification, it is not trusted to select the tenant. References without response are absent
+   * from the returned map.
+   *
+   * @param kbTenantIds tenants the notification is for, e.g. the ones whose key accepts it
+   */
+  public Map<String, AdyenResponsesRecord> getResponsesFromMerchantReferences(
+      final Collection<String> merchantReferences, final Collection<UUID> kbTenantIds)
+      throws SQLException {
+    if (merchantReferences.isEmpty() || kbTenantIds.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    final List<String> tenants = new ArrayList<>(kbTenantIds.size());
+    for (final UUID kbTenantId : kbTenantIds) {
+      tenants.add(kbTenantId.toString());
+    }
+    return execute(
+        "getResponsesFromMerchantReferences",
+        dataSource.getConnection(),
+        conn -> {
+          final Map<String, AdyenResponsesRecord> responses = new HashMap<>();
+          for (final AdyenResponsesRecord record :
+              DSL.using(conn, dialect, settings)
+                  .selectFrom(ADYEN_RESPONSES)
+                  .where(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.in(merchantReferences))
+                  .and(ADYEN_RESPONSES.KB_TENANT_ID.in(tenants))
+                  .orderBy(ADYEN_RESPONSES.RECORD_ID)
+                  .fetch()) {
+            // Keep the first response of each transaction
+            responses.putIfAbsent(record.getKbPaymentTransactionId(), record);
           }
+          return responses;
+        });
+  }
+
+  /**
+   * Tenants with a response for each merchant reference, for the notifications of a merchant
+   * account no tenant was seen with yet. Only candidates: the caller checks that they have the
+   * merchant account of the notification and accept its signature.
+   */
+  public Map<String, Set<UUID>> getTenantsFromMerchantReferences(
+      final Collection<String> merchantReferences) throws SQLException {
+    if (merchantReferences.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    return execute(
+        "getTenantsFromMerchantReferences",
+        dataSource.getConnection(),
+        conn -> {
+          final Map<String, Set<UUID>> tenants = new HashMap<>();
+          for (final Record2<String, String> record :
+              DSL.using(conn, dialect, settings)
+                  .selectDistinct(
+                      ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID, ADYEN_RESPONSES.KB_TENANT_ID)
+                  .from(ADYEN_RESPONSES)
+                  .where(ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID.in(merchantReferences))
+                  .fetch()) {
+            tenants
+                .computeIfAbsent(record.value1(), merchantReference -> new HashSet<>())
+                .add(UUID.fromString(record.value2()));
+          }
+          return tenants;
         });
   }
 
   public AdyenPaymentMethodsRecord getPaymentMethod(final String kbPaymentMethodId)
       throws SQLException {
     return execute(
+        "getPaymentMethod",
         dataSource.getConnection(),
         new WithConnectionCallback<AdyenPaymentMethodsRecord>() {
           @Override
@@ -388,6 +798,7 @@ public class AdyenDao
   public List<AdyenResponsesRecord> getSuccessfulPurchaseResponseList(
       final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
     return execute(
+        "getSuccessfulPurchaseResponseList",
         dataSource.getConnection(),
         new WithConnectionCallback<List<AdyenResponsesRecord>>() {
           @Override
@@ -395,24 +806,280 @@ public class AdyenDao
               throws SQLException {
             return DSL.using(conn, dialect, settings)
                 .selectFrom(ADYEN_RESPONSES)
-                .where(DSL.field(ADYEN_RESPONSES.KB_PAYMENT_ID).equal(kbPaymentId.toString()))
-                .and(DSL.field(ADYEN_RESPONSES.KB_TENANT_ID).equal(kbTenantId.toString()))
+                .where(ADYEN_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                .and(ADYEN_RESPONSES.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
+                // Backward range scan of adyen_responses_kb_tenant_id_kb_payment_id, no sort
                 .orderBy(ADYEN_RESPONSES.RECORD_ID.desc())
                 .fetch();
           }
         });
   }
 
-  @SuppressWarnings("rawtypes")
-  public static Map mapFromAdditionalDataString(@Nullable final String additionalData) {
-    if (additionalData == null) {
-      return ImmutableMap.of();
+  // Notification queue
+  public ULong enqueueNotification(final String body) throws SQLException {
+    final LocalDateTime now = toLocalDateTime(new DateTime());
+    return execute(
+        "enqueueNotification",
+        dataSource.getConnection(),
+        conn ->
+            DSL.using(conn, dialect, settings)
+                .insertInto(
+                    ADYEN_NOTIFICATION_QUEUE,
+                    ADYEN_NOTIFICATION_QUEUE.BODY,
+                    ADYEN_NOTIFICATION_QUEUE.PROCESSING_STATE,
+                    ADYEN_NOTIFICATION_QUEUE.ERROR_COUNT,
+                    ADYEN_NOTIFICATION_QUEUE.NEXT_AVAILABLE_DATE,
+                    ADYEN_NOTIFICATION_QUEUE.CREATED_DATE)
+                .values(body, QUEUE_AVAILABLE, 0, now, now)
+                .returning(ADYEN_NOTIFICATION_QUEUE.RECORD_ID)
+                .fetchOne()
+                .getRecordId());
+  }
+
+  /**
+   * Returns the ids of the queued notifications ready to be processed: available ones, and the ones
+   * whose processing lease expired (e.g. the owning node died)
+   */
+  public List<ULong> getReadyQueuedNotifications(final int limit) throws SQLException {
+    final LocalDateTime now = toLocalDateTime(new DateTime());
+    return execute(
+        "getReadyQueuedNotifications",
+        dataSource.getConnection(),
+        conn ->
+            DSL.using(conn, dialect, settings)
+                .select(ADYEN_NOTIFICATION_QUEUE.RECORD_ID)
+                .from(ADYEN_NOTIFICATION_QUEUE)
+                .where(
+                    ADYEN_NOTIFICATION_QUEUE.PROCESSING_STATE.in(
+                        QUEUE_AVAILABLE, QUEUE_IN_PROCESSING))
+                .and(ADYEN_NOTIFICATION_QUEUE.NEXT_AVAILABLE_DATE.le(now))
+                .orderBy(ADYEN_NOTIFICATION_QUEUE.RECORD_ID)
+                .limit(limit)
+                .fetch(ADYEN_NOTIFICATION_QUEUE.RECORD_ID));
+  }
+
+  /**
+   * Claims a queued notification for {@code leaseMillis}. Returns null if another worker (or node)
+   * claimed it first.
+   */
+  public AdyenNotificationQueueRecord claimQueuedNotification(
+      final ULong recordId, final String owner, final long leaseMillis) throws SQLException {
+    final DateTime utcNow = new DateTime();
+    final LocalDateTime now = toLocalDateTime(utcNow);
+    final LocalDateTime leaseExpiry = toLocalDateTime(utcNow.plus(leaseMillis));
+    return execute(
+        "claimQueuedNotification",
+        dataSource.getConnection(),
+        conn -> {
+          final DSLContext dslContext = DSL.using(conn, dialect, settings);
+          final int claimed =
+              dslContext
+                  .update(ADYEN_NOTIFICATION_QUEUE)
+                  .set(ADYEN_NOTIFICATION_QUEUE.PROCESSING_STATE, QUEUE_IN_PROCESSING)
+                  .set(ADYEN_NOTIFICATION_QUEUE.PROCESSING_OWNER, owner)
+                  .set(ADYEN_NOTIFICATION_QUEUE.NEXT_AVAILABLE_DATE, leaseExpiry)
+                  .where(ADYEN_NOTIFICATION_QUEUE.RECORD_ID.equal(recordId))
+                  .and(
+                      ADYEN_NOTIFICATION_QUEUE.PROCESSING_STATE.in(
+                          QUEUE_AVAILABLE, QUEUE_IN_PROCESSING))
+                  .and(ADYEN_NOTIFICATION_QUEUE.NEXT_AVAILABLE_DATE.le(now))
+                  .execute();
+          if (claimed != 1) {
+            return null;
+          }
+          return dslContext.fetchOne(
+              ADYEN_NOTIFICATION_QUEUE, ADYEN_NOTIFICATION_QUEUE.RECORD_ID.equal(recordId));
+        });
+  }
+
+  public void completeQueuedNotification(final ULong recordId) throws SQLException {
+    execute(
+        "completeQueuedNotification",
+        dataSource.getConnection(),
+        conn ->
+            DSL.using(conn, dialect, settings)
+                .deleteFrom(ADYEN_NOTIFICATION_QUEUE)
+                .where(ADYEN_NOTIFICATION_QUEUE.RECORD_ID.equal(recordId))
+                .execute());
+  }
+
+  /** Releases a notification whose processing failed, either for a later retry or for good */
+  public void failQueuedNotification(
+      final ULong recordId,
+      final int errorCount,
+      final long retryDelayMillis,
+      final boolean giveUp)
+      throws SQLException {
+    final LocalDateTime nextAvailableDate = toLocalDateTime(new DateTime().plus(retryDelayMillis));
+    execute(
+        "failQueuedNotification",
+        dataSource.getConnection(),
+        conn ->
+            DSL.using(conn, dialect, settings)
+                .update(ADYEN_NOTIFICATION_QUEUE)
+                .set(
+                    ADYEN_NOTIFICATION_QUEUE.PROCESSING_STATE,
+                    giveUp ? QUEUE_FAILED : QUEUE_AVAILABLE)
+                .setNull(ADYEN_NOTIFICATION_QUEUE.PROCESSING_OWNER)
+                .set(ADYEN_NOTIFICATION_QUEUE.ERROR_COUNT, errorCount)
+                .set(ADYEN_NOTIFICATION_QUEUE.NEXT_AVAILABLE_DATE, nextAvailableDate)
+                .where(ADYEN_NOTIFICATION_QUEUE.RECORD_ID.equal(recordId))
+                .execute());
+  }
+
+  public int getQueuedNotificationsCount() throws SQLException {
+    return execute(
+        "getQueuedNotificationsCount",
+        dataSource.getConnection(),
+        conn ->
+            DSL.using(conn, dialect, settings)
+                .fetchCount(
+                    ADYEN_NOTIFICATION_QUEUE,
+                    ADYEN_NOTIFICATION_QUEUE.PROCESSING_STATE.in(
+                        QUEUE_AVAILABLE, QUEUE_IN_PROCESSING)));
+  }
+
+  // Additional data
+
+  /**
+   * Rewrites the additional_data of the tenant rows, compressed or as plain JSON, e.g. after {@code
+   * compressAdditionalData} is turned on or off. Rows are read and updated by batches of {@code
+   * batchSize}, in one transaction per batch, and the ones already in the requested format are left
+   * alone.
+   *
+   * @return the rows rewritten and the space they take before and after, for every table
+   */
+  public List<AdditionalDataRewrite> rewriteAdditionalData(
+      final UUID kbTenantId, final boolean compress, final int batchSize) throws SQLException {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    return ImmutableList.of(
+        rewriteAdditionalData(
+            ADYEN_RESPONSES,
+            ADYEN_RESPONSES.RECORD_ID,
+            ADYEN_RESPONSES.ADDITIONAL_DATA,
+            ADYEN_RESPONSES.KB_TENANT_ID,
+            kbTenantId,
+            compress,
+            batchSize),
+        rewriteAdditionalData(
+            ADYEN_NOTIFICATIONS,
+            ADYEN_NOTIFICATIONS.RECORD_ID,
+            ADYEN_NOTIFICATIONS.ADDITIONAL_DATA,
+            ADYEN_NOTIFICATIONS.KB_TENANT_ID,
+            kbTenantId,
+            compress,
+            batchSize),
+        rewriteAdditionalData(
+            ADYEN_PAYMENT_METHODS,
+            ADYEN_PAYMENT_METHODS.RECORD_ID,
+            ADYEN_PAYMENT_METHODS.ADDITIONAL_DATA,
+            ADYEN_PAYMENT_METHODS.KB_TENANT_ID,
+            kbTenantId,
+            compress,
+            batchSize),
+        rewriteAdditionalData(
+            ADYEN_HPP_REQUESTS,
+            ADYEN_HPP_REQUESTS.RECORD_ID,
+            ADYEN_HPP_REQUESTS.ADDITIONAL_DATA,
+            ADYEN_HPP_REQUESTS.KB_TENANT_ID,
+            kbTenantId,
+            compress,
+            batchSize));
+  }
+
+  private <R extends Record> AdditionalDataRewrite rewriteAdditionalData(
+      final org.jooq.Table<R> table,
+      final TableField<R, ULong> recordIdField,
+      final TableField<R, String> additionalDataField,
+      final TableField<R, String> kbTenantIdField,
+      final UUID kbTenantId,
+      final boolean compress,
+      final int batchSize)
+      throws SQLException {
+    // rows, bytes before, bytes after
+    final long[] totals = new long[3];
+    ULong lastRecordId = ULong.valueOf(0);
+    while (lastRecordId != null) {
+      final ULong fromRecordId = lastRecordId;
+      lastRecordId =
+          execute(
+              "rewriteAdditionalData",
+              dataSource.getConnection(),
+              conn ->
+                  DSL.using(conn, dialect, settings)
+                      .transactionResult(
+                          configuration -> {
+                            final DSLContext dslContext = DSL.using(conn, dialect, settings);
+                            final Result<Record2<ULong, String>> rows =
+                                dslContext
+                                    .select(recordIdField, additionalDataField)
+                                    .from(table)
+                                    .where(kbTenantIdField.equal(kbTenantId.toString()))
+                                    .and(recordIdField.greaterThan(fromRecordId))
+                                    .and(additionalDataField.isNotNull())
+                                    .orderBy(recordIdField)
+                                    .limit(batchSize)
+                                    .fetch();
+                            final List<Query> updates = new ArrayList<>(rows.size());
+                            for (final Record2<ULong, String> row : rows) {
+                              final String before = row.value2();
+                              final String after =
+                                  AdyenAdditionalDataCodec.write(
+                                      AdyenAdditionalDataCodec.read(before), compress);
+                              if (after == null || after.equals(before)) {
+                                continue;
+                              }
+                              totals[0]++;
+                              totals[1] += before.getBytes(StandardCharsets.UTF_8).length;
+                              totals[2] += after.getBytes(StandardCharsets.UTF_8).length;
+                              updates.add(
+                                  dslContext
+                                      .update(table)
+                                      .set(additionalDataField, after)
+                                      .where(recordIdField.equal(row.value1())));
+                            }
+                            if (!updates.isEmpty()) {
+                              dslContext.batch(updates).execute();
+                            }
+                            return rows.size() < batchSize
+                                ? null
+                                : rows.get(rows.size() - 1).value1();
+                          }));
     }
+    return new AdditionalDataRewrite(table.getName(), totals[0], totals[1], totals[2]);
+  }
+
+  @Getter
+  @AllArgsConstructor
+  public static final class AdditionalDataRewrite {
+
+    private final String table;
+    private final long rows;
+    private final long bytesBefore;
+    private final long bytesAfter;
+  }
 
+  // Health
+
+  /** Trivial query, to check that a connection can be obtained and used */
+  public void ping() throws SQLException {
+    execute(
+        "ping",
+        dataSource.getConnection(),
+        conn -> DSL.using(conn, dialect, settings).selectOne().fetch());
+  }
+
+  /** Same as {@link #execute(Connection, WithConnectionCallback)}, timed under the query name */
+  private <T> T execute(
+      final String query, final Connection conn, final WithConnectionCallback<T> callback)
+      throws SQLException {
+    final long startNanos = System.nanoTime();
     try {
-      return objectMapper.readValue(additionalData, Map.class);
-    } catch (final IOException e) {
-      throw new FormaterException(e);
+      return execute(conn, callback);
+    } finally {
+      metrics.recordDaoQuery(query, System.nanoTime() - startNanos);
     }
   }
 }
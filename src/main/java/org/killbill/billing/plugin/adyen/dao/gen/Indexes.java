@@ -8,6 +8,7 @@ import org.jooq.OrderField;
 import org.jooq.impl.DSL;
 import org.jooq.impl.Internal;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationQueue;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 
@@ -37,6 +38,15 @@ public class Indexes {
           AdyenHppRequests.ADYEN_HPP_REQUESTS,
           new OrderField[] {AdyenHppRequests.ADYEN_HPP_REQUESTS.TRANSACTION_EXTERNAL_KEY},
           false);
+  public static final Index ADYEN_NOTIFICATION_QUEUE_ADYEN_NOTIFICATION_QUEUE_STATE_DATE =
+      Internal.createIndex(
+          DSL.name("adyen_notification_queue_state_date"),
+          AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE,
+          new OrderField[] {
+            AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE.PROCESSING_STATE,
+            AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE.NEXT_AVAILABLE_DATE
+          },
+          false);
   public static final Index ADYEN_NOTIFICATIONS_ADYEN_NOTIFICATIONS_KB_PAYMENT_ID =
       Internal.createIndex(
           DSL.name("adyen_notifications_kb_payment_id"),
@@ -55,17 +65,24 @@ public class Indexes {
           AdyenNotifications.ADYEN_NOTIFICATIONS,
           new OrderField[] {AdyenNotifications.ADYEN_NOTIFICATIONS.PSP_REFERENCE},
           false);
-  public static final Index ADYEN_RESPONSES_ADYEN_RESPONSES_KB_PAYMENT_ID =
+  public static final Index ADYEN_RESPONSES_ADYEN_RESPONSES_KB_PAYMENT_TRANSACTION_ID_RECORD_ID =
       Internal.createIndex(
-          DSL.name("adyen_responses_kb_payment_id"),
+          DSL.name("adyen_responses_kb_payment_transaction_id_record_id"),
           AdyenResponses.ADYEN_RESPONSES,
-          new OrderField[] {AdyenResponses.ADYEN_RESPONSES.KB_PAYMENT_ID},
+          new OrderField[] {
+            AdyenResponses.ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
+            AdyenResponses.ADYEN_RESPONSES.RECORD_ID
+          },
           false);
-  public static final Index ADYEN_RESPONSES_ADYEN_RESPONSES_KB_PAYMENT_TRANSACTION_ID =
+  public static final Index ADYEN_RESPONSES_ADYEN_RESPONSES_KB_TENANT_ID_KB_PAYMENT_ID =
       Internal.createIndex(
-          DSL.name("adyen_responses_kb_payment_transaction_id"),
+          DSL.name("adyen_responses_kb_tenant_id_kb_payment_id"),
           AdyenResponses.ADYEN_RESPONSES,
-          new OrderField[] {AdyenResponses.ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID},
+          new OrderField[] {
+            AdyenResponses.ADYEN_RESPONSES.KB_TENANT_ID,
+            AdyenResponses.ADYEN_RESPONSES.KB_PAYMENT_ID,
+            AdyenResponses.ADYEN_RESPONSES.RECORD_ID
+          },
           false);
   public static final Index ADYEN_RESPONSES_PSP_REFERENCE_IDX =
       Internal.createIndex(
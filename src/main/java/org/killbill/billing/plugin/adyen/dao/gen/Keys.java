@@ -8,10 +8,12 @@ import org.jooq.UniqueKey;
 import org.jooq.impl.DSL;
 import org.jooq.impl.Internal;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationQueue;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenHppRequestsRecord;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationQueueRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenNotificationsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
@@ -36,6 +38,20 @@ public class Keys {
           DSL.name("KEY_adyen_hpp_requests_record_id"),
           new TableField[] {AdyenHppRequests.ADYEN_HPP_REQUESTS.RECORD_ID},
           true);
+  public static final UniqueKey<AdyenNotificationQueueRecord>
+      KEY_ADYEN_NOTIFICATION_QUEUE_PRIMARY =
+          Internal.createUniqueKey(
+              AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE,
+              DSL.name("KEY_adyen_notification_queue_PRIMARY"),
+              new TableField[] {AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE.RECORD_ID},
+              true);
+  public static final UniqueKey<AdyenNotificationQueueRecord>
+      KEY_ADYEN_NOTIFICATION_QUEUE_RECORD_ID =
+          Internal.createUniqueKey(
+              AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE,
+              DSL.name("KEY_adyen_notification_queue_record_id"),
+              new TableField[] {AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE.RECORD_ID},
+              true);
   public static final UniqueKey<AdyenNotificationsRecord> KEY_ADYEN_NOTIFICATIONS_PRIMARY =
       Internal.createUniqueKey(
           AdyenNotifications.ADYEN_NOTIFICATIONS,
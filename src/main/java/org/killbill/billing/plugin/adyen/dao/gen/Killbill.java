@@ -9,6 +9,7 @@ import org.jooq.Catalog;
 import org.jooq.Table;
 import org.jooq.impl.SchemaImpl;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationQueue;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
@@ -25,6 +26,10 @@ public class Killbill extends SchemaImpl {
   /** The table <code>killbill.adyen_hpp_requests</code>. */
   public final AdyenHppRequests ADYEN_HPP_REQUESTS = AdyenHppRequests.ADYEN_HPP_REQUESTS;
 
+  /** The table <code>killbill.adyen_notification_queue</code>. */
+  public final AdyenNotificationQueue ADYEN_NOTIFICATION_QUEUE =
+      AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE;
+
   /** The table <code>killbill.adyen_notifications</code>. */
   public final AdyenNotifications ADYEN_NOTIFICATIONS = AdyenNotifications.ADYEN_NOTIFICATIONS;
 
@@ -49,6 +54,7 @@ public class Killbill extends SchemaImpl {
   public final List<Table<?>> getTables() {
     return Arrays.<Table<?>>asList(
         AdyenHppRequests.ADYEN_HPP_REQUESTS,
+        AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE,
         AdyenNotifications.ADYEN_NOTIFICATIONS,
         AdyenPaymentMethods.ADYEN_PAYMENT_METHODS,
         AdyenResponses.ADYEN_RESPONSES);
@@ -4,6 +4,7 @@
 package org.killbill.billing.plugin.adyen.dao.gen;
 
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenHppRequests;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotificationQueue;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenNotifications;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenPaymentMethods;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses;
@@ -15,6 +16,10 @@ public class Tables {
   /** The table <code>killbill.adyen_hpp_requests</code>. */
   public static final AdyenHppRequests ADYEN_HPP_REQUESTS = AdyenHppRequests.ADYEN_HPP_REQUESTS;
 
+  /** The table <code>killbill.adyen_notification_queue</code>. */
+  public static final AdyenNotificationQueue ADYEN_NOTIFICATION_QUEUE =
+      AdyenNotificationQueue.ADYEN_NOTIFICATION_QUEUE;
+
   /** The table <code>killbill.adyen_notifications</code>. */
   public static final AdyenNotifications ADYEN_NOTIFICATIONS =
       AdyenNotifications.ADYEN_NOTIFICATIONS;
@@ -268,8 +268,8 @@ public class AdyenResponses extends TableImpl<AdyenResponsesRecord> {
   @Override
   public List<Index> getIndexes() {
     return Arrays.<Index>asList(
-        Indexes.ADYEN_RESPONSES_ADYEN_RESPONSES_KB_PAYMENT_ID,
-        Indexes.ADYEN_RESPONSES_ADYEN_RESPONSES_KB_PAYMENT_TRANSACTION_ID,
+        Indexes.ADYEN_RESPONSES_ADYEN_RESPONSES_KB_PAYMENT_TRANSACTION_ID_RECORD_ID,
+        Indexes.ADYEN_RESPONSES_ADYEN_RESPONSES_KB_TENANT_ID_KB_PAYMENT_ID,
         Indexes.ADYEN_RESPONSES_PSP_REFERENCE_IDX);
   }
 
@@ -64,8 +64,8 @@ create table adyen_responses (
 , kb_tenant_id char(36) not null
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
-create index adyen_responses_kb_payment_id on adyen_responses(kb_payment_id);
-create index adyen_responses_kb_payment_transaction_id on adyen_responses(kb_payment_transaction_id);
+create index adyen_responses_kb_tenant_id_kb_payment_id on adyen_responses(kb_tenant_id, kb_payment_id, record_id);
+create index adyen_responses_kb_payment_transaction_id_record_id on adyen_responses(kb_payment_transaction_id, record_id);
 create index psp_reference_idx on adyen_responses(psp_reference);
 
 drop table if exists adyen_notifications;
@@ -92,8 +92,10 @@ create table adyen_notifications (
 , kb_tenant_id char(36)
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
--- Not unique to handle retries
+-- Lookups by psp reference
 create index adyen_notifications_psp_reference on adyen_notifications(psp_reference);
+-- A notification item redelivered by Adyen is only applied once
+create unique index adyen_notifications_kb_tenant_id_psp_reference on adyen_notifications(kb_tenant_id, psp_reference, event_code, success);
 create index adyen_notifications_kb_payment_id on adyen_notifications(kb_payment_id);
 create index adyen_notifications_kb_payment_transaction_id on adyen_notifications(kb_payment_transaction_id);
 
@@ -112,4 +114,17 @@ create table adyen_payment_methods (
 , kb_tenant_id char(36) not null
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
-create unique index adyen_payment_methods_kb_payment_id on adyen_payment_methods(kb_payment_method_id);
\ No newline at end of file
+create unique index adyen_payment_methods_kb_payment_id on adyen_payment_methods(kb_payment_method_id);
+
+drop table if exists adyen_notification_queue;
+create table adyen_notification_queue (
+  record_id serial
+, body longtext not null
+, processing_state varchar(14) not null default 'AVAILABLE'
+, processing_owner varchar(128) default null
+, error_count int not null default 0
+, next_available_date datetime not null
+, created_date datetime not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create index adyen_notification_queue_state_date on adyen_notification_queue(processing_state, next_available_date);
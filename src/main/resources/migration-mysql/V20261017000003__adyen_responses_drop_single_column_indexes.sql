@@ -0,0 +1,21 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+-- Superseded by adyen_responses_kb_tenant_id_kb_payment_id and
+-- adyen_responses_kb_payment_transaction_id_record_id (V20261017000001)
+drop index adyen_responses_kb_payment_id on adyen_responses;
+drop index adyen_responses_kb_payment_transaction_id on adyen_responses;
@@ -0,0 +1,24 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+-- Lookups by payment are tenant scoped and ordered by record_id
+create index adyen_responses_kb_tenant_id_kb_payment_id on adyen_responses(kb_tenant_id, kb_payment_id, record_id);
+-- Merchant reference lookups (notifications) have no tenant but are ordered by record_id
+create index adyen_responses_kb_payment_transaction_id_record_id on adyen_responses(kb_payment_transaction_id, record_id);
+
+-- The single column indexes superseded by these are dropped by V20261017000003, which is engine
+-- specific (migration-mysql and migration-postgresql)
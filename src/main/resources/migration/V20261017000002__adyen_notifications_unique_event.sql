@@ -0,0 +1,30 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+-- Redeliveries of a notification item used to be stored again, keep the first copy only
+delete from adyen_notifications
+where psp_reference is not null
+and record_id not in (
+  select record_id from (
+    select min(record_id) as record_id
+    from adyen_notifications
+    where psp_reference is not null
+    group by kb_tenant_id, psp_reference, event_code, success
+  ) first_copies
+);
+-- A notification item redelivered by Adyen is only applied once
+create unique index adyen_notifications_kb_tenant_id_psp_reference on adyen_notifications(kb_tenant_id, psp_reference, event_code, success);
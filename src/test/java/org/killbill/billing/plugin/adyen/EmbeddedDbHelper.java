@@ -19,6 +19,7 @@ package org.killbill.billing.plugin.adyen;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import javax.sql.DataSource;
 import org.killbill.billing.platform.test.PlatformDBTestingHelper;
 import org.killbill.billing.plugin.TestUtils;
 import org.killbill.billing.plugin.adyen.dao.AdyenDao;
@@ -63,6 +64,10 @@ public class EmbeddedDbHelper {
     return new AdyenDao(embeddedDB.getDataSource());
   }
 
+  public DataSource getDataSource() throws IOException {
+    return embeddedDB.getDataSource();
+  }
+
   public void resetDB() throws IOException {
     embeddedDB.cleanupAllTables();
   }
@@ -17,10 +17,15 @@
 
 package org.killbill.billing.plugin.adyen;
 
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
 import com.google.common.collect.ImmutableList;
 import java.math.BigDecimal;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
 import org.killbill.billing.osgi.api.Healthcheck;
 import org.killbill.billing.payment.api.Payment;
@@ -35,8 +40,12 @@ import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.TestUtils;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentMethodInfoPlugin;
 import org.killbill.billing.plugin.adyen.api.AdyenPaymentMethodPlugin;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenHealthProber;
 import org.killbill.billing.plugin.adyen.core.AdyenHealthcheck;
 import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenPaymentMethodsRecord;
+import org.killbill.billing.plugin.adyen.stub.AdyenWebhookGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -45,6 +54,8 @@ import org.testng.annotations.Test;
 public class TestAdyenPaymentPluginApi extends TestBase {
 
   private static final Logger logger = LoggerFactory.getLogger(TestAdyenPaymentPluginApi.class);
+  private static final String HMAC_KEY =
+      "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
   private String defaultToken = "F8C833979563DDE0008FC110580B69F5";
   private String ccOneTime = "CC_ONE_TIME";
   private String testing = "Testing";
@@ -247,9 +258,32 @@ public class TestAdyenPaymentPluginApi extends TestBase {
   }
 
   @Test(groups = "integration")
-  public void testHealthcheck() {
-    final Healthcheck healthcheck = new AdyenHealthcheck();
+  public void testHealthcheck() throws InterruptedException {
+    final AdyenHealthProber healthProber =
+        new AdyenHealthProber(
+            dao,
+            adyenConfigPropertiesConfigurationHandler,
+            new AdyenConfigProperties(new Properties(), ""));
+    final Healthcheck healthcheck = new AdyenHealthcheck(healthProber);
+    // Nothing probed yet
     Assert.assertTrue(healthcheck.getHealthStatus(null, null).isHealthy());
+
+    healthProber.start();
+    try {
+      // The first probe runs right away
+      Map<?, ?> database = null;
+      for (int i = 0; i < 100; i++) {
+        database = (Map<?, ?>) healthcheck.getHealthStatus(null, null).getDetails().get("database");
+        if (!"PENDING".equals(database.get("status"))) {
+          break;
+        }
+        Thread.sleep(100);
+      }
+      Assert.assertEquals(database.get("status"), "OK");
+      Assert.assertTrue(healthcheck.getHealthStatus(null, null).isHealthy());
+    } finally {
+      healthProber.stop();
+    }
   }
 
   @Test(groups = "integration")
@@ -265,6 +299,77 @@ public class TestAdyenPaymentPluginApi extends TestBase {
     Assert.assertEquals(AdyenPaymentMethodInfoPlugin.build(methodRecord).getAccountId(), account.getId());
   }
 
+  @Test(groups = "integration")
+  public void testNotificationWithUnknownMerchantReference() throws Exception {
+    final Properties properties = TestUtils.loadProperties(PROPERTIES_FILE_NAME);
+    properties.put("org.killbill.billing.plugin.adyen.hcmaKey", HMAC_KEY);
+    adyenConfigPropertiesConfigurationHandler.setDefaultConfigurable(
+        new AdyenConfigProperties(properties, ""));
+
+    final UUID kbPaymentId = UUID.randomUUID();
+    final UUID kbTransactionId = UUID.randomUUID();
+    addPendingPurchase(kbPaymentId, kbTransactionId);
+    // The payment call of the second item has not stored its response yet
+    final UUID lateKbPaymentId = UUID.randomUUID();
+    final UUID lateKbTransactionId = UUID.randomUUID();
+    final String notification =
+        new AdyenWebhookGenerator(HMAC_KEY)
+            .toJson(
+                ImmutableList.of(
+                    notificationItem(kbTransactionId, "8815000000000001"),
+                    notificationItem(lateKbTransactionId, "8815000000000002")));
+
+    try {
+      adyenPaymentPluginApi.handleNotification(notification, ImmutableList.of());
+      Assert.fail("The notification should be retried");
+    } catch (final PaymentPluginApiException e) {
+      Assert.assertTrue(e.getErrorMessage().contains(lateKbTransactionId.toString()));
+    }
+    // The item with a payment is applied all the same
+    Assert.assertEquals(
+        dao.getSuccessfulPurchaseResponse(kbPaymentId, context.getTenantId())
+            .getTransactionStatus(),
+        PaymentPluginStatus.PROCESSED.toString());
+
+    // Retried once the payment call is done
+    addPendingPurchase(lateKbPaymentId, lateKbTransactionId);
+    adyenPaymentPluginApi.handleNotification(notification, ImmutableList.of());
+    Assert.assertEquals(
+        dao.getSuccessfulPurchaseResponse(lateKbPaymentId, context.getTenantId())
+            .getTransactionStatus(),
+        PaymentPluginStatus.PROCESSED.toString());
+    Assert.assertEquals(
+        dao.getSuccessfulPurchaseResponse(kbPaymentId, context.getTenantId())
+            .getTransactionStatus(),
+        PaymentPluginStatus.PROCESSED.toString());
+  }
+
+  private void addPendingPurchase(final UUID kbPaymentId, final UUID kbTransactionId)
+      throws SQLException {
+    dao.addResponse(
+        account.getId(),
+        kbPaymentId,
+        kbTransactionId,
+        TransactionType.PURCHASE,
+        BigDecimal.TEN,
+        account.getCurrency(),
+        PaymentPluginStatus.PENDING,
+        UUID.randomUUID().toString(),
+        new ProcessorOutputDTO(),
+        context.getTenantId());
+  }
+
+  private static NotificationRequestItem notificationItem(
+      final UUID merchantReference, final String pspReference) {
+    return new NotificationRequestItem()
+        .setAmount(new Amount().currency("USD").value(1000L))
+        .setEventCode("AUTHORISATION")
+        .setMerchantAccountCode("test")
+        .setMerchantReference(merchantReference.toString())
+        .setPspReference(pspReference)
+        .setSuccess(true);
+  }
+
   private List<PaymentMethodInfoPlugin> syncPaymentMethods(UUID kbAccountId)
       throws PaymentPluginApiException {
     return adyenPaymentPluginApi.getPaymentMethods(kbAccountId, true, ImmutableList.of(), context);
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.plugin.adyen.client.AdyenAmounts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Conversion of Kill Bill amounts to Adyen minor units */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdyenAmountsBenchmark {
+
+  @Param({"USD", "JPY", "KWD"})
+  public Currency currency;
+
+  @Param({"19.99", "1234567.5"})
+  public String value;
+
+  private BigDecimal amount;
+
+  @Setup
+  public void setUp() {
+    amount = new BigDecimal(value);
+  }
+
+  @Benchmark
+  public long toMinorUnits() {
+    return AdyenAmounts.toMinorUnits(currency, amount);
+  }
+
+  /** Baseline for {@link #toMinorUnits()}: the former conversion, which ignored the currency */
+  @Benchmark
+  public long toMinorUnitsThroughString() {
+    return Long.valueOf(amount.toString().replace(".", ""));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import static org.killbill.billing.plugin.adyen.dao.gen.tables.AdyenResponses.ADYEN_RESPONSES;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.JDBCUtils;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.dao.gen.tables.records.AdyenResponsesRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** AdyenDao hot paths against the embedded database of the tests */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AdyenDaoBenchmark {
+
+  private final UUID kbTenantId = UUID.randomUUID();
+  private final UUID kbAccountId = UUID.randomUUID();
+  private final UUID kbPaymentId = UUID.randomUUID();
+  private final AtomicLong pspReferences = new AtomicLong(8816178952180429L);
+
+  private AdyenDao dao;
+  private DataSource dataSource;
+  private SQLDialect dialect;
+  private AdyenResponsesRecord purchase;
+  private ProcessorOutputDTO outputDTO;
+
+  @Setup
+  public void setUp() throws Exception {
+    EmbeddedDbHelper.instance().startDb();
+    dao = EmbeddedDbHelper.instance().getAdyenDao();
+    dataSource = EmbeddedDbHelper.instance().getDataSource();
+    try (Connection connection = dataSource.getConnection()) {
+      dialect = JDBCUtils.dialect(connection);
+    }
+
+    outputDTO = new ProcessorOutputDTO();
+    outputDTO.setSecondPaymentReferenceId("reference");
+    outputDTO.setAdditionalData(ImmutableMap.of("resultCode", "Authorised"));
+    purchase = addResponse(TransactionType.PURCHASE);
+    // Follow-up transactions, so that lookups by payment have to skip rows
+    for (int i = 0; i < 10; i++) {
+      addResponse(TransactionType.REFUND);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    EmbeddedDbHelper.instance().stopDB();
+  }
+
+  @Benchmark
+  public AdyenResponsesRecord addResponse() throws SQLException {
+    return addResponse(TransactionType.REFUND);
+  }
+
+  /** Baseline for {@link #addResponse()}: insert, then select the row by last inserted id */
+  @Benchmark
+  public AdyenResponsesRecord addResponseInsertThenSelect() throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      final DSLContext dslContext = DSL.using(connection, dialect);
+      return dslContext.transactionResult(
+          configuration -> {
+            dslContext
+                .insertInto(
+                    ADYEN_RESPONSES,
+                    ADYEN_RESPONSES.KB_ACCOUNT_ID,
+                    ADYEN_RESPONSES.KB_PAYMENT_ID,
+                    ADYEN_RESPONSES.KB_PAYMENT_TRANSACTION_ID,
+                    ADYEN_RESPONSES.TRANSACTION_TYPE,
+                    ADYEN_RESPONSES.TRANSACTION_STATUS,
+                    ADYEN_RESPONSES.REFERENCE,
+                    ADYEN_RESPONSES.AMOUNT,
+                    ADYEN_RESPONSES.CURRENCY,
+                    ADYEN_RESPONSES.CREATED_DATE,
+                    ADYEN_RESPONSES.KB_TENANT_ID)
+                .values(
+                    kbAccountId.toString(),
+                    kbPaymentId.toString(),
+                    UUID.randomUUID().toString(),
+                    TransactionType.REFUND.toString(),
+                    PaymentPluginStatus.PENDING.toString(),
+                    "reference",
+                    BigDecimal.TEN,
+                    Currency.USD.name(),
+                    LocalDateTime.now(ZoneOffset.UTC),
+                    kbTenantId.toString())
+                .execute();
+            return dslContext.fetchOne(
+                ADYEN_RESPONSES,
+                ADYEN_RESPONSES.RECORD_ID.eq(
+                    ADYEN_RESPONSES.RECORD_ID.getDataType().convert(dslContext.lastID())));
+          });
+    }
+  }
+
+  @Benchmark
+  public AdyenResponsesRecord getSuccessfulPurchaseResponse() throws SQLException {
+    return dao.getSuccessfulPurchaseResponse(kbPaymentId, kbTenantId);
+  }
+
+  @Benchmark
+  public Map<String, AdyenResponsesRecord> getResponsesFromMerchantReferences()
+      throws SQLException {
+    return dao.getResponsesFromMerchantReferences(
+        ImmutableList.of(purchase.getKbPaymentTransactionId()), ImmutableList.of(kbTenantId));
+  }
+
+  @Benchmark
+  public void applyNotifications() throws SQLException {
+    final NotificationRequestItem item = new NotificationRequestItem();
+    item.setMerchantReference(purchase.getKbPaymentTransactionId());
+    item.setMerchantAccountCode("merchant");
+    // A new psp reference every time, redeliveries are skipped
+    item.setPspReference(Long.toString(pspReferences.incrementAndGet()));
+    item.setEventCode("AUTHORISATION");
+    item.setSuccess(true);
+    item.setAmount(new Amount().currency("USD").value(1000L));
+
+    final ProcessorOutputDTO update = new ProcessorOutputDTO();
+    update.setPspReferenceCode(item.getPspReference());
+    update.setStatus(PaymentPluginStatus.PROCESSED);
+
+    final List<NotificationRequestItem> items = ImmutableList.of(item);
+    dao.applyNotifications(
+        items,
+        ImmutableMap.of(purchase.getKbPaymentTransactionId(), purchase),
+        ImmutableMap.of(purchase.getKbPaymentTransactionId(), update),
+        ImmutableMap.of());
+  }
+
+  private AdyenResponsesRecord addResponse(final TransactionType transactionType)
+      throws SQLException {
+    return dao.addResponse(
+        kbAccountId,
+        kbPaymentId,
+        UUID.randomUUID(),
+        transactionType,
+        BigDecimal.TEN,
+        Currency.USD,
+        PaymentPluginStatus.PENDING,
+        null,
+        outputDTO,
+        kbTenantId);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.NotificationHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.plugin.adyen.client.AdyenNotificationParser;
+import org.killbill.billing.plugin.adyen.stub.AdyenWebhookGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Parsing of notification bodies, from a single item to large batches */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdyenNotificationParserBenchmark {
+
+  private static final String HMAC_KEY =
+      "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+
+  @Param({"1", "50"})
+  public int items;
+
+  // Card, fraud and 3DS details make for dozens of entries
+  @Param({"30"})
+  public int additionalDataEntries;
+
+  private String notification;
+
+  @Setup
+  public void setUp() throws Exception {
+    final List<NotificationRequestItem> notificationItems = new ArrayList<>(items);
+    for (int i = 0; i < items; i++) {
+      final Map<String, String> additionalData = new HashMap<>();
+      for (int j = 0; j < additionalDataEntries; j++) {
+        additionalData.put("key" + j, "value of entry " + j);
+      }
+      notificationItems.add(
+          new NotificationRequestItem()
+              .setAdditionalData(additionalData)
+              .setAmount(new Amount().currency("USD").value(1000L + i))
+              .setEventCode("AUTHORISATION")
+              .setMerchantAccountCode("merchant")
+              .setMerchantReference("reference" + i)
+              .setPspReference(Long.toString(8816178952180429L + i))
+              .setSuccess(true));
+    }
+    notification = new AdyenWebhookGenerator(HMAC_KEY).toJson(notificationItems);
+  }
+
+  @Benchmark
+  public List<NotificationRequestItem> parse() throws IOException {
+    return AdyenNotificationParser.parse(notification);
+  }
+
+  /** Baseline for {@link #parse()}: the SDK, which binds the whole body with Gson */
+  @Benchmark
+  public List<NotificationRequestItem> handleNotificationJson() {
+    return new NotificationHandler().handleNotificationJson(notification).getNotificationItems();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.benchmarks;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentPluginApiException;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.TestUtils;
+import org.killbill.billing.plugin.adyen.EmbeddedDbHelper;
+import org.killbill.billing.plugin.adyen.api.AdyenPaymentPluginApi;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.core.AdyenActivator;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigurationHandler;
+import org.killbill.billing.plugin.adyen.dao.AdyenDao;
+import org.killbill.billing.plugin.adyen.stub.AdyenCheckoutStub;
+import org.killbill.billing.plugin.adyen.stub.AdyenCheckoutStub.Latency;
+import org.killbill.billing.plugin.adyen.stub.AdyenWebhookGenerator;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.clock.ClockMock;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Payment and notification entry points of the plugin, against the embedded database of the tests
+ * and {@link AdyenCheckoutStub} instead of Adyen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AdyenPaymentPluginApiBenchmark {
+
+  // Adyen HMAC keys are hex encoded
+  private static final String HMAC_KEY =
+      "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+  private static final String MERCHANT_ACCOUNT = "BenchmarkMerchant";
+
+  /** Simulated Adyen response time, e.g. -p checkoutLatencyMillis=0,50,200 */
+  @Param("0")
+  public long checkoutLatencyMillis;
+
+  private final UUID kbTenantId = UUID.randomUUID();
+  private final UUID kbPaymentMethodId = UUID.randomUUID();
+
+  private AdyenCheckoutStub checkoutStub;
+  private AdyenPaymentPluginApi adyenPaymentPluginApi;
+  private Account account;
+  private CallContext context;
+  private String notification;
+
+  @Setup
+  public void setUp() throws Exception {
+    EmbeddedDbHelper.instance().startDb();
+    final AdyenDao dao = EmbeddedDbHelper.instance().getAdyenDao();
+    checkoutStub =
+        new AdyenCheckoutStub().withLatency(Latency.fixed(checkoutLatencyMillis)).start();
+
+    context = Mockito.mock(CallContext.class);
+    Mockito.when(context.getTenantId()).thenReturn(kbTenantId);
+    account = TestUtils.buildAccount(Currency.USD, "US");
+    final OSGIKillbillAPI killbillApi = TestUtils.buildOSGIKillbillAPI(account);
+
+    final AdyenConfigurationHandler configurationHandler =
+        new AdyenConfigurationHandler(null, AdyenActivator.PLUGIN_NAME, killbillApi);
+    final Properties properties = new Properties();
+    properties.setProperty("org.killbill.billing.plugin.adyen.apiKey", "benchmark");
+    properties.setProperty("org.killbill.billing.plugin.adyen.returnUrl", "benchmark");
+    properties.setProperty("org.killbill.billing.plugin.adyen.merchantAccount", MERCHANT_ACCOUNT);
+    properties.setProperty("org.killbill.billing.plugin.adyen.hcmaKey", HMAC_KEY);
+    properties.setProperty("org.killbill.billing.plugin.adyen.captureDelayHours", "0");
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.checkoutUrl", checkoutStub.getCheckoutUrl());
+    configurationHandler.setDefaultConfigurable(new AdyenConfigProperties(properties, ""));
+
+    adyenPaymentPluginApi =
+        new AdyenPaymentPluginApi(
+            configurationHandler,
+            killbillApi,
+            Mockito.mock(OSGIConfigPropertiesService.class),
+            new ClockMock(),
+            dao);
+
+    dao.addPaymentMethod(
+        account.getId(), kbPaymentMethodId, ImmutableMap.of(), false, kbTenantId, true);
+
+    // The notification keeps confirming the same purchase, which is what retries look like: past
+    // the first invocation, this measures how redeliveries are acknowledged
+    final UUID kbTransactionId = UUID.randomUUID();
+    final ProcessorOutputDTO outputDTO = new ProcessorOutputDTO();
+    outputDTO.setFirstPaymentReferenceId("8816178952180429");
+    dao.addResponse(
+        account.getId(),
+        UUID.randomUUID(),
+        kbTransactionId,
+        TransactionType.PURCHASE,
+        BigDecimal.TEN,
+        Currency.USD,
+        PaymentPluginStatus.PENDING,
+        null,
+        outputDTO,
+        kbTenantId);
+    notification =
+        new AdyenWebhookGenerator(HMAC_KEY)
+            .toJson(
+                ImmutableList.of(
+                    new NotificationRequestItem()
+                        .setAmount(new Amount().currency("USD").value(1000L))
+                        .setEventCode("AUTHORISATION")
+                        .setMerchantAccountCode(MERCHANT_ACCOUNT)
+                        .setMerchantReference(kbTransactionId.toString())
+                        .setPspReference("8816178952180429")
+                        .setSuccess(true)));
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    checkoutStub.stop();
+    EmbeddedDbHelper.instance().stopDB();
+  }
+
+  @Benchmark
+  public PaymentTransactionInfoPlugin purchasePayment() throws PaymentPluginApiException {
+    return adyenPaymentPluginApi.purchasePayment(
+        account.getId(),
+        UUID.randomUUID(),
+        UUID.randomUUID(),
+        kbPaymentMethodId,
+        BigDecimal.TEN,
+        Currency.USD,
+        ImmutableList.of(),
+        context);
+  }
+
+  @Benchmark
+  public void handleNotification() throws PaymentPluginApiException {
+    adyenPaymentPluginApi.handleNotification(notification, ImmutableList.of());
+  }
+}
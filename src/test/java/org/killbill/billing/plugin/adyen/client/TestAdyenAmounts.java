@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import org.killbill.billing.catalog.api.Currency;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenAmounts {
+
+  // Fixed seed, so that a failure can be reproduced
+  private static final long SEED = 20261017L;
+  private static final int SAMPLES = 10000;
+
+  @Test(groups = "fast")
+  public void testExponents() {
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.USD), 2);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.EUR), 2);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.JPY), 0);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.KRW), 0);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.KWD), 3);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.BHD), 3);
+  }
+
+  /** Currencies for which Adyen and ISO 4217 disagree */
+  @Test(groups = "fast")
+  public void testAdyenExponents() {
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.ISK), 2);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.CLP), 2);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.CVE), 0);
+    Assert.assertEquals(AdyenAmounts.getExponent(Currency.IDR), 0);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.ISK, new BigDecimal("1500")), 150000L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.CLP, new BigDecimal("990.5")), 99050L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.IDR, new BigDecimal("15000")), 15000L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.CVE, new BigDecimal("99.5")), 100L);
+  }
+
+  @Test(groups = "fast")
+  public void testToMinorUnits() {
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("10.00")), 1000L);
+    // Scales other than the currency one used to be converted digit for digit
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("10")), 1000L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("10.5")), 1050L);
+    Assert.assertEquals(
+        AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("10.000000000")), 1000L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("1E+1")), 1000L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("0.01")), 1L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.JPY, new BigDecimal("1500")), 1500L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.JPY, new BigDecimal("1500.00")), 1500L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.KWD, new BigDecimal("1.5")), 1500L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.KWD, new BigDecimal("1.234")), 1234L);
+  }
+
+  @Test(groups = "fast")
+  public void testRounding() {
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("10.004")), 1000L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal("10.005")), 1001L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.JPY, new BigDecimal("99.5")), 100L);
+    Assert.assertEquals(AdyenAmounts.toMinorUnits(Currency.KWD, new BigDecimal("0.0005")), 1L);
+  }
+
+  @Test(groups = "fast", expectedExceptions = ArithmeticException.class)
+  public void testOverflow() {
+    AdyenAmounts.toMinorUnits(Currency.USD, new BigDecimal(Long.MAX_VALUE));
+  }
+
+  /** Minor units converted back give the amount, for any amount with the currency scale */
+  @Test(groups = "fast")
+  public void testRoundTrip() {
+    final Random random = new Random(SEED);
+    final Currency[] currencies = Currency.values();
+    for (int i = 0; i < SAMPLES; i++) {
+      final Currency currency = currencies[random.nextInt(currencies.length)];
+      final int exponent = AdyenAmounts.getExponent(currency);
+      final long minorUnits = Math.abs(random.nextLong() % 1_000_000_000_000L);
+      final BigDecimal amount = BigDecimal.valueOf(minorUnits, exponent);
+
+      Assert.assertEquals(AdyenAmounts.toMinorUnits(currency, amount), minorUnits, amount + " ");
+      // Trailing zeros, as stored in the numeric(15,9) columns, do not change the result
+      Assert.assertEquals(
+          AdyenAmounts.toMinorUnits(currency, amount.setScale(9)), minorUnits, amount + " ");
+      Assert.assertEquals(
+          AdyenAmounts.toMinorUnits(currency, amount.stripTrailingZeros()),
+          minorUnits,
+          amount + " ");
+    }
+  }
+
+  /** Any amount is within half a minor unit of its conversion */
+  @Test(groups = "fast")
+  public void testConversionError() {
+    final Random random = new Random(SEED);
+    final Currency[] currencies = Currency.values();
+    for (int i = 0; i < SAMPLES; i++) {
+      final Currency currency = currencies[random.nextInt(currencies.length)];
+      final int exponent = AdyenAmounts.getExponent(currency);
+      final BigDecimal amount =
+          BigDecimal.valueOf(Math.abs(random.nextLong() % 1_000_000_000_000_000L), 9);
+
+      final BigDecimal converted =
+          BigDecimal.valueOf(AdyenAmounts.toMinorUnits(currency, amount), exponent);
+      final BigDecimal error = converted.subtract(amount).abs();
+      final BigDecimal halfMinorUnit = BigDecimal.valueOf(5, exponent + 1);
+      Assert.assertTrue(error.compareTo(halfMinorUnit) <= 0, amount + " " + currency);
+      Assert.assertEquals(
+          converted, amount.setScale(exponent, RoundingMode.HALF_UP), amount + " " + currency);
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.google.common.collect.ImmutableSet;
+import java.security.SignatureException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenHmacVerifier {
+
+  private static final String KEY =
+      "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+  private static final String OTHER_KEY =
+      "9F3A1E6C0B2D4F8A7E5C3B1D9F0A2C4E6B8D0F1A3C5E7B9D1F3A5C7E9B0D2F4A";
+  private static final String MERCHANT_ACCOUNT = "merchant";
+
+  private final HMACValidator hmacValidator = new HMACValidator();
+
+  /** Same result as the SDK, for valid, tampered, missing and malformed signatures */
+  @Test(groups = "fast")
+  public void testSameResultAsSdk() throws SignatureException {
+    final Map<String, NotificationRequestItem> items = new LinkedHashMap<>();
+    items.put("valid", signed(newItem(), KEY));
+
+    final NotificationRequestItem amountChanged = signed(newItem(), KEY);
+    amountChanged.getAmount().setValue(1L);
+    items.put("amount changed", amountChanged);
+    final NotificationRequestItem successChanged = signed(newItem(), KEY);
+    successChanged.setSuccess(false);
+    items.put("success changed", successChanged);
+    final NotificationRequestItem pspReferenceChanged = signed(newItem(), KEY);
+    pspReferenceChanged.setPspReference("8815000000000099");
+    items.put("psp reference changed", pspReferenceChanged);
+    items.put("other key", signed(newItem(), OTHER_KEY));
+
+    final NotificationRequestItem missing = newItem();
+    missing.setAdditionalData(new HashMap<>());
+    items.put("missing", missing);
+    final NotificationRequestItem empty = newItem();
+    empty.setAdditionalData(new HashMap<>());
+    empty.getAdditionalData().put("hmacSignature", "");
+    items.put("empty", empty);
+    final NotificationRequestItem notBase64 = newItem();
+    notBase64.setAdditionalData(new HashMap<>());
+    notBase64.getAdditionalData().put("hmacSignature", "not Base64 !");
+    items.put("not Base64", notBase64);
+    final NotificationRequestItem truncated = signed(newItem(), KEY);
+    truncated
+        .getAdditionalData()
+        .put("hmacSignature", truncated.getAdditionalData().get("hmacSignature").substring(4));
+    items.put("truncated", truncated);
+
+    final AdyenHmacVerifier verifier = new AdyenHmacVerifier(KEY);
+    // Keys are hexadecimal, in any case
+    final AdyenHmacVerifier lowerCaseVerifier = new AdyenHmacVerifier(KEY.toLowerCase(Locale.ROOT));
+    for (final Map.Entry<String, NotificationRequestItem> item : items.entrySet()) {
+      final boolean expected = validateWithSdk(item.getValue(), KEY);
+      Assert.assertEquals(verifier.verify(item.getValue()), expected, item.getKey());
+      Assert.assertEquals(lowerCaseVerifier.verify(item.getValue()), expected, item.getKey());
+      Assert.assertEquals(expected, "valid".equals(item.getKey()), item.getKey());
+    }
+
+    final NotificationRequestItem withoutAdditionalData = newItem();
+    Assert.assertFalse(verifier.verify(withoutAdditionalData));
+  }
+
+  @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+  public void testMissingKey() {
+    new AdyenHmacVerifier("");
+  }
+
+  @Test(groups = "fast")
+  public void testVerifyByMerchantAccount() throws SignatureException {
+    final AdyenHmacVerifierRegistry registry = new AdyenHmacVerifierRegistry();
+    final NotificationRequestItem signedWithKey = signed(newItem(), KEY);
+    final NotificationRequestItem signedWithOtherKey = signed(newItem(), OTHER_KEY);
+    // No tenant seen yet
+    Assert.assertNull(registry.verifyByMerchantAccount(signedWithKey));
+
+    // Two tenants share the merchant account, with their own key
+    registry.get(UUID.randomUUID(), newConfigProperties(MERCHANT_ACCOUNT, KEY));
+    Assert.assertEquals(registry.verifyByMerchantAccount(signedWithKey), Boolean.TRUE);
+    Assert.assertEquals(registry.verifyByMerchantAccount(signedWithOtherKey), Boolean.FALSE);
+    registry.get(UUID.randomUUID(), newConfigProperties(MERCHANT_ACCOUNT, OTHER_KEY));
+    Assert.assertEquals(registry.verifyByMerchantAccount(signedWithKey), Boolean.TRUE);
+    Assert.assertEquals(registry.verifyByMerchantAccount(signedWithOtherKey), Boolean.TRUE);
+
+    final NotificationRequestItem forged = newItem();
+    forged.setAdditionalData(new HashMap<>());
+    forged.getAdditionalData().put("hmacSignature", "forged");
+    Assert.assertEquals(registry.verifyByMerchantAccount(forged), Boolean.FALSE);
+
+    // Tenants of other merchant accounts are not used
+    final NotificationRequestItem otherMerchantAccount = newItem();
+    otherMerchantAccount.setMerchantAccountCode("other");
+    signed(otherMerchantAccount, KEY);
+    Assert.assertNull(registry.verifyByMerchantAccount(otherMerchantAccount));
+    registry.get(null, newConfigProperties("other", OTHER_KEY));
+    Assert.assertEquals(registry.verifyByMerchantAccount(otherMerchantAccount), Boolean.FALSE);
+  }
+
+  /** The tenants the applied notifications cache is looked up for */
+  @Test(groups = "fast")
+  public void testVerifyingTenants() throws SignatureException {
+    final AdyenHmacVerifierRegistry registry = new AdyenHmacVerifierRegistry();
+    final NotificationRequestItem signedWithKey = signed(newItem(), KEY);
+    Assert.assertNull(registry.getVerifyingTenants(signedWithKey));
+
+    final UUID tenant = UUID.randomUUID();
+    final UUID tenantWithOtherKey = UUID.randomUUID();
+    final UUID tenantWithSameKey = UUID.randomUUID();
+    registry.get(tenant, newConfigProperties(MERCHANT_ACCOUNT, KEY));
+    registry.get(tenantWithOtherKey, newConfigProperties(MERCHANT_ACCOUNT, OTHER_KEY));
+    Assert.assertEquals(registry.getVerifyingTenants(signedWithKey), ImmutableSet.of(tenant));
+    Assert.assertEquals(
+        registry.getVerifyingTenants(signed(newItem(), OTHER_KEY)),
+        ImmutableSet.of(tenantWithOtherKey));
+
+    registry.get(tenantWithSameKey, newConfigProperties(MERCHANT_ACCOUNT, KEY));
+    registry.get(UUID.randomUUID(), newConfigProperties("other", KEY));
+    Assert.assertEquals(
+        registry.getVerifyingTenants(signedWithKey), ImmutableSet.of(tenant, tenantWithSameKey));
+
+    final NotificationRequestItem forged = newItem();
+    forged.setAdditionalData(new HashMap<>());
+    forged.getAdditionalData().put("hmacSignature", "forged");
+    Assert.assertEquals(registry.getVerifyingTenants(forged), ImmutableSet.of());
+  }
+
+  @Test(groups = "fast")
+  public void testReplacedWhenConfigurationChanges() throws SignatureException {
+    final AdyenHmacVerifierRegistry registry = new AdyenHmacVerifierRegistry();
+    final UUID kbTenantId = UUID.randomUUID();
+    final NotificationRequestItem signedWithKey = signed(newItem(), KEY);
+    final NotificationRequestItem signedWithOtherKey = signed(newItem(), OTHER_KEY);
+
+    final AdyenConfigProperties configProperties = newConfigProperties(MERCHANT_ACCOUNT, KEY);
+    final AdyenHmacVerifier verifier = registry.get(kbTenantId, configProperties);
+    Assert.assertSame(registry.get(kbTenantId, configProperties), verifier);
+    Assert.assertTrue(verifier.verify(signedWithKey));
+
+    // The key is rotated
+    final AdyenHmacVerifier rotated =
+        registry.get(kbTenantId, newConfigProperties(MERCHANT_ACCOUNT, OTHER_KEY));
+    Assert.assertNotSame(rotated, verifier);
+    Assert.assertTrue(rotated.verify(signedWithOtherKey));
+    Assert.assertEquals(registry.verifyByMerchantAccount(signedWithKey), Boolean.FALSE);
+    Assert.assertEquals(registry.verifyByMerchantAccount(signedWithOtherKey), Boolean.TRUE);
+
+    registry.invalidate(kbTenantId);
+    Assert.assertNull(registry.verifyByMerchantAccount(signedWithOtherKey));
+  }
+
+  private boolean validateWithSdk(final NotificationRequestItem item, final String key)
+      throws SignatureException {
+    try {
+      return hmacValidator.validateHMAC(item, key);
+    } catch (final IllegalArgumentException | NullPointerException e) {
+      // The SDK throws when there is no signature
+      return false;
+    }
+  }
+
+  private NotificationRequestItem signed(final NotificationRequestItem item, final String key)
+      throws SignatureException {
+    if (item.getAdditionalData() == null) {
+      item.setAdditionalData(new HashMap<>());
+    }
+    item.getAdditionalData().put("hmacSignature", hmacValidator.calculateHMAC(item, key));
+    return item;
+  }
+
+  private static NotificationRequestItem newItem() {
+    return new NotificationRequestItem()
+        .setPspReference("8815000000000001")
+        .setMerchantAccountCode(MERCHANT_ACCOUNT)
+        .setMerchantReference(UUID.randomUUID().toString())
+        .setEventCode("AUTHORISATION")
+        .setSuccess(true)
+        .setAmount(new Amount().currency("EUR").value(1000L));
+  }
+
+  private static AdyenConfigProperties newConfigProperties(
+      final String merchantAccount, final String hmacKey) {
+    final Properties properties = new Properties();
+    properties.setProperty("org.killbill.billing.plugin.adyen.merchantAccount", merchantAccount);
+    properties.setProperty("org.killbill.billing.plugin.adyen.hcmaKey", hmacKey);
+    return new AdyenConfigProperties(properties, "");
+  }
+}
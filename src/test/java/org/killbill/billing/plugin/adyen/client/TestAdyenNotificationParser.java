@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.notification.NotificationHandler;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonSyntaxException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import org.killbill.billing.plugin.adyen.stub.AdyenWebhookGenerator;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** The streaming parser reads the same values as the SDK one, for every field the plugin uses */
+public class TestAdyenNotificationParser {
+
+  private static final String HMAC_KEY =
+      "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+
+  // As documented by Adyen, with fields the plugin does not read
+  private static final String AUTHORISATION =
+      "{\"live\":\"false\",\"notificationItems\":[{\"NotificationRequestItem\":{"
+          + "\"additionalData\":{\"authCode\":\"058705\",\"cardSummary\":\"1111\","
+          + "\"expiryDate\":\"03/2030\","
+          + "\"recurring.recurringDetailReference\":\"8415698462516992\","
+          + "\"recurring.shopperReference\":\"a1b2c3\",\"totalFraudScore\":10,"
+          + "\"hmacSignature\":\"coqCmt/IZ4E3CzPvMY8zTjQVL5hYJUiBRg8UU+iCWo0=\"},"
+          + "\"amount\":{\"currency\":\"EUR\",\"value\":1000},"
+          + "\"eventCode\":\"AUTHORISATION\",\"eventDate\":\"2026-10-17T12:00:00+02:00\","
+          + "\"merchantAccountCode\":\"YOUR_MERCHANT_ACCOUNT\","
+          + "\"merchantReference\":\"0b4a3a8e-9b1c-4a5e-8f3d-2c6b7d8e9f01\","
+          + "\"operations\":[\"CANCEL\",\"CAPTURE\",\"REFUND\"],\"paymentMethod\":\"visa\","
+          + "\"pspReference\":\"YOUR_PSP_REFERENCE\",\"reason\":\"058705:1111:03/2030\","
+          + "\"success\":\"true\"}}]}";
+
+  private static final String REFUSED_AND_REFUND =
+      "{\"live\":\"true\",\"notificationItems\":["
+          + "{\"NotificationRequestItem\":{\"amount\":{\"currency\":\"USD\",\"value\":2599},"
+          + "\"eventCode\":\"AUTHORISATION\",\"merchantAccountCode\":\"merchant\","
+          + "\"merchantReference\":\"ref-1\",\"pspReference\":\"8815000000000001\","
+          + "\"reason\":\"Refused\",\"success\":\"false\"}},"
+          + "{\"NotificationRequestItem\":{\"additionalData\":{},"
+          + "\"amount\":{\"currency\":\"KWD\",\"value\":1234},"
+          + "\"eventCode\":\"REFUND\",\"merchantAccountCode\":\"merchant\","
+          + "\"merchantReference\":\"ref-2\",\"originalReference\":\"8815000000000002\","
+          + "\"pspReference\":\"8815000000000003\",\"success\":\"true\"}}]}";
+
+  // Some integrations send success as a JSON boolean
+  private static final String BOOLEAN_SUCCESS =
+      "{\"live\":\"false\",\"notificationItems\":["
+          + "{\"NotificationRequestItem\":{\"eventCode\":\"CAPTURE\",\"merchantAccountCode\":\"m\","
+          + "\"merchantReference\":\"ref-3\",\"pspReference\":\"8815000000000004\","
+          + "\"success\":true}},"
+          + "{\"NotificationRequestItem\":{\"eventCode\":\"CAPTURE\",\"merchantAccountCode\":\"m\","
+          + "\"merchantReference\":\"ref-4\",\"pspReference\":\"8815000000000005\","
+          + "\"success\":false}}]}";
+
+  @Test(groups = "fast")
+  public void testSampleBodies() throws Exception {
+    for (final String body : ImmutableList.of(AUTHORISATION, REFUSED_AND_REFUND, BOOLEAN_SUCCESS)) {
+      assertSameItems(AdyenNotificationParser.parse(body), parseWithSdk(body));
+      assertSameItems(
+          AdyenNotificationParser.parse(
+              new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))),
+          parseWithSdk(body));
+    }
+
+    final NotificationRequestItem authorisation =
+        AdyenNotificationParser.parse(AUTHORISATION).get(0);
+    Assert.assertTrue(authorisation.isSuccess());
+    Assert.assertEquals(authorisation.getAmount().getValue(), Long.valueOf(1000));
+    Assert.assertEquals(
+        authorisation.getAdditionalData().get("recurring.recurringDetailReference"),
+        "8415698462516992");
+    // Numbers are kept as their JSON text
+    Assert.assertEquals(authorisation.getAdditionalData().get("totalFraudScore"), "10");
+
+    final List<NotificationRequestItem> booleanSuccess =
+        AdyenNotificationParser.parse(BOOLEAN_SUCCESS);
+    Assert.assertTrue(booleanSuccess.get(0).isSuccess());
+    Assert.assertFalse(booleanSuccess.get(1).isSuccess());
+  }
+
+  @Test(groups = "fast")
+  public void testGeneratedWebhooks() throws Exception {
+    final NotificationRequestItem authorisation =
+        new NotificationRequestItem()
+            .setPspReference("8815000000000001")
+            .setMerchantAccountCode("merchant")
+            .setMerchantReference(UUID.randomUUID().toString())
+            .setEventCode("AUTHORISATION")
+            .setReason("058705:1111:03/2030")
+            .setSuccess(true)
+            .setAmount(new Amount().currency("JPY").value(1500L));
+    authorisation.setAdditionalData(
+        new HashMap<>(ImmutableMap.of("recurring.recurringDetailReference", "8415698462516992")));
+    final NotificationRequestItem failedRefund =
+        new NotificationRequestItem()
+            .setPspReference("8815000000000002")
+            .setOriginalReference("8815000000000001")
+            .setMerchantAccountCode("merchant")
+            .setMerchantReference(UUID.randomUUID().toString())
+            .setEventCode("REFUND_FAILED")
+            .setSuccess(false)
+            .setAmount(new Amount().currency("EUR").value(999L));
+
+    final String body =
+        new AdyenWebhookGenerator(HMAC_KEY).toJson(ImmutableList.of(authorisation, failedRefund));
+    final List<NotificationRequestItem> items = AdyenNotificationParser.parse(body);
+    assertSameItems(items, parseWithSdk(body));
+
+    Assert.assertEquals(items.size(), 2);
+    Assert.assertEquals(items.get(0).getMerchantReference(), authorisation.getMerchantReference());
+    Assert.assertEquals(items.get(1).getOriginalReference(), "8815000000000001");
+    Assert.assertFalse(items.get(1).isSuccess());
+    // The signature is read back, and still matches
+    final AdyenHmacVerifier verifier = new AdyenHmacVerifier(HMAC_KEY);
+    Assert.assertTrue(verifier.verify(items.get(0)));
+    Assert.assertTrue(verifier.verify(items.get(1)));
+  }
+
+  /** The SDK rejects the whole body, the streaming parser only skips the nested values */
+  @Test(groups = "fast")
+  public void testNestedAdditionalData() throws Exception {
+    final String nested =
+        "{\"live\":\"false\",\"notificationItems\":[{\"NotificationRequestItem\":{"
+            + "\"additionalData\":{\"authCode\":\"058705\",\"metadata\":{\"orderId\":\"1\"},"
+            + "\"checkoutSessionId\":\"CS1\",\"tags\":[\"a\",\"b\"],\"acquirerCode\":null},"
+            + "\"eventCode\":\"AUTHORISATION\",\"merchantAccountCode\":\"merchant\","
+            + "\"merchantReference\":\"ref-1\",\"pspReference\":\"8815000000000001\","
+            + "\"success\":\"true\"}}]}";
+    final String scalarsOnly =
+        nested
+            .replace("\"metadata\":{\"orderId\":\"1\"},", "")
+            .replace(",\"tags\":[\"a\",\"b\"],\"acquirerCode\":null", "");
+    try {
+      parseWithSdk(nested);
+      Assert.fail();
+    } catch (final JsonSyntaxException expected) {
+      // Gson binds additionalData as a map of strings
+    }
+
+    final List<NotificationRequestItem> items = AdyenNotificationParser.parse(nested);
+    assertSameItems(items, parseWithSdk(scalarsOnly));
+    Assert.assertEquals(
+        items.get(0).getAdditionalData(),
+        ImmutableMap.of("authCode", "058705", "checkoutSessionId", "CS1"));
+  }
+
+  private static List<NotificationRequestItem> parseWithSdk(final String body) {
+    return new NotificationHandler().handleNotificationJson(body).getNotificationItems();
+  }
+
+  private static void assertSameItems(
+      final List<NotificationRequestItem> actual, final List<NotificationRequestItem> expected) {
+    Assert.assertEquals(actual.size(), expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      final NotificationRequestItem item = actual.get(i);
+      final NotificationRequestItem sdkItem = expected.get(i);
+      final String message = sdkItem.getPspReference();
+      Assert.assertEquals(item.getPspReference(), sdkItem.getPspReference(), message);
+      Assert.assertEquals(item.getOriginalReference(), sdkItem.getOriginalReference(), message);
+      Assert.assertEquals(item.getMerchantReference(), sdkItem.getMerchantReference(), message);
+      Assert.assertEquals(
+          item.getMerchantAccountCode(), sdkItem.getMerchantAccountCode(), message);
+      Assert.assertEquals(item.getEventCode(), sdkItem.getEventCode(), message);
+      Assert.assertEquals(item.isSuccess(), sdkItem.isSuccess(), message);
+      Assert.assertEquals(item.getReason(), sdkItem.getReason(), message);
+      if (sdkItem.getAmount() == null) {
+        Assert.assertNull(item.getAmount(), message);
+      } else {
+        Assert.assertEquals(
+            item.getAmount().getCurrency(), sdkItem.getAmount().getCurrency(), message);
+        Assert.assertEquals(item.getAmount().getValue(), sdkItem.getAmount().getValue(), message);
+        Assert.assertEquals(
+            item.getAmount().getDecimalValue(), sdkItem.getAmount().getDecimalValue(), message);
+      }
+      Assert.assertEquals(item.getAdditionalData(), sdkItem.getAdditionalData(), message);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.plugin.api.PaymentPluginStatus;
+import org.killbill.billing.plugin.adyen.api.PaymentMethod;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.killbill.billing.plugin.adyen.stub.AdyenCheckoutStub;
+import org.killbill.billing.plugin.adyen.stub.AdyenCheckoutStub.Latency;
+import org.killbill.billing.plugin.adyen.stub.AdyenCheckoutStub.Operation;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/** The {@link AsyncGatewayProcessor} operations, against the Checkout API stub */
+public class TestAdyenProcessorImpl {
+
+  private static final long LATENCY_MILLIS = 200;
+  private static final int PIPELINED_CALLS = 20;
+
+  private AdyenCheckoutStub checkoutStub;
+  private GatewayProcessor processor;
+
+  @AfterMethod(groups = "fast", alwaysRun = true)
+  public void tearDown() {
+    if (processor != null) {
+      processor.close();
+    }
+    if (checkoutStub != null) {
+      checkoutStub.stop();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testAsyncOperations() throws Exception {
+    start(new AdyenCheckoutStub());
+
+    final ProcessorOutputDTO purchase =
+        processor.processOneTimePaymentAsync(newInput()).get(10, TimeUnit.SECONDS);
+    Assert.assertNotNull(purchase.getFirstPaymentReferenceId());
+    Assert.assertNull(purchase.getGatewayError());
+
+    final ProcessorInputDTO refundInput = newInput();
+    refundInput.setPspReference(purchase.getFirstPaymentReferenceId());
+    final ProcessorOutputDTO refund =
+        processor.refundPaymentAsync(refundInput).get(10, TimeUnit.SECONDS);
+    Assert.assertNotNull(refund.getFirstPaymentReferenceId());
+
+    final ProcessorInputDTO voidInput = newInput();
+    voidInput.setPspReference(purchase.getFirstPaymentReferenceId());
+    final ProcessorOutputDTO reversal =
+        processor.voidPaymentAsync(voidInput).get(10, TimeUnit.SECONDS);
+    Assert.assertNotNull(reversal.getFirstPaymentReferenceId());
+
+    Assert.assertEquals(checkoutStub.getRequestCount(Operation.PAYMENTS), 1);
+    Assert.assertEquals(checkoutStub.getRequestCount(Operation.REFUNDS), 1);
+    Assert.assertEquals(checkoutStub.getRequestCount(Operation.REVERSALS), 1);
+  }
+
+  /** Same output as the blocking operation */
+  @Test(groups = "fast")
+  public void testAsyncSessionLikeBlocking() throws Exception {
+    start(new AdyenCheckoutStub());
+
+    final ProcessorOutputDTO blocking = processor.processPayment(newInput());
+    final ProcessorOutputDTO async =
+        processor.processPaymentAsync(newInput()).get(10, TimeUnit.SECONDS);
+
+    Assert.assertNotNull(async.getFirstPaymentReferenceId());
+    Assert.assertTrue(async.getFirstPaymentReferenceId().startsWith("CS"));
+    Assert.assertNotNull(async.getAdditionalData().get("sessionData"));
+    Assert.assertEquals(async.getStatus(), blocking.getStatus());
+    Assert.assertEquals(async.getAdditionalData().keySet(), blocking.getAdditionalData().keySet());
+    Assert.assertEquals(checkoutStub.getRequestCount(Operation.SESSIONS), 2);
+  }
+
+  /** Failures complete the future normally, with the output of the blocking operation */
+  @Test(groups = "fast")
+  public void testAsyncFailure() throws Exception {
+    start(new AdyenCheckoutStub().withErrorRate(1.0));
+
+    final ProcessorOutputDTO async =
+        processor.processOneTimePaymentAsync(newInput()).get(10, TimeUnit.SECONDS);
+    final ProcessorOutputDTO blocking = processor.processOneTimePayment(newInput());
+
+    // A 5xx leaves the outcome unknown
+    Assert.assertEquals(async.getStatus(), PaymentPluginStatus.UNDEFINED);
+    Assert.assertEquals(async.getStatus(), blocking.getStatus());
+    Assert.assertNull(async.getFirstPaymentReferenceId());
+    Assert.assertNotNull(async.getGatewayError());
+  }
+
+  /** In-flight calls do not hold a thread each: they overlap instead of queuing */
+  @Test(groups = "fast")
+  public void testAsyncCallsPipelined() throws Exception {
+    start(new AdyenCheckoutStub().withLatency(Latency.fixed(LATENCY_MILLIS)));
+
+    final long startNanos = System.nanoTime();
+    final List<CompletableFuture<ProcessorOutputDTO>> futures = new ArrayList<>();
+    for (int i = 0; i < PIPELINED_CALLS; i++) {
+      futures.add(processor.processOneTimePaymentAsync(newInput()));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .get(30, TimeUnit.SECONDS);
+    final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+    for (final CompletableFuture<ProcessorOutputDTO> future : futures) {
+      Assert.assertNotNull(future.get().getFirstPaymentReferenceId());
+    }
+    Assert.assertEquals(checkoutStub.getRequestCount(Operation.PAYMENTS), PIPELINED_CALLS);
+    // Sequential calls would take PIPELINED_CALLS * LATENCY_MILLIS
+    Assert.assertTrue(
+        elapsedMillis < PIPELINED_CALLS * LATENCY_MILLIS / 2, elapsedMillis + " ms");
+  }
+
+  private void start(final AdyenCheckoutStub stub) throws IOException {
+    checkoutStub = stub.start();
+    final Properties properties = new Properties();
+    properties.setProperty("org.killbill.billing.plugin.adyen.apiKey", "test");
+    properties.setProperty("org.killbill.billing.plugin.adyen.returnUrl", "http://localhost");
+    properties.setProperty("org.killbill.billing.plugin.adyen.merchantAccount", "test");
+    properties.setProperty("org.killbill.billing.plugin.adyen.captureDelayHours", "0");
+    properties.setProperty("org.killbill.billing.plugin.adyen.maxRetries", "0");
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.checkoutUrl", checkoutStub.getCheckoutUrl());
+    processor = GatewayProcessorFactory.get(new AdyenConfigProperties(properties, ""));
+  }
+
+  private static ProcessorInputDTO newInput() {
+    final ProcessorInputDTO input = new ProcessorInputDTO();
+    input.setCurrency(Currency.USD);
+    input.setAmount(BigDecimal.TEN);
+    input.setKbTransactionId(UUID.randomUUID().toString());
+    input.setKbAccountId(UUID.randomUUID().toString().replace("-", ""));
+    input.setPaymentMethod(PaymentMethod.ONE_TIME);
+    return input;
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.client;
+
+import com.adyen.service.exception.ApiException;
+import com.google.gson.JsonSyntaxException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.killbill.billing.plugin.adyen.client.AdyenGatewayExecutor.GatewayCall;
+import org.killbill.billing.plugin.adyen.client.exceptions.RequestRejectedException;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenResiliencePolicy {
+
+  private static final String OK = "OK";
+  private static final long NEVER_MILLIS = 3600000;
+
+  @Test(groups = "fast")
+  public void testOpensAtThreshold() throws Exception {
+    final AdyenResiliencePolicy policy = newPolicy(0, 3, NEVER_MILLIS);
+    final FakeCall call = new FakeCall(new IOException(), new IOException(), new IOException());
+
+    for (int i = 0; i < 3; i++) {
+      assertFails(policy, call, IOException.class);
+    }
+    Assert.assertEquals(call.calls, 3);
+
+    // Open: rejected without reaching Adyen
+    assertFails(policy, call, RequestRejectedException.class);
+    assertFails(policy, call, RequestRejectedException.class);
+    Assert.assertEquals(call.calls, 3);
+  }
+
+  @Test(groups = "fast")
+  public void testResponseResetsFailures() throws Exception {
+    final AdyenResiliencePolicy policy = newPolicy(0, 2, NEVER_MILLIS);
+    // A non transient error is still an answer from Adyen
+    final FakeCall call =
+        new FakeCall(new IOException(), new ApiException("Refused", 422), new IOException(), OK);
+
+    assertFails(policy, call, IOException.class);
+    assertFails(policy, call, ApiException.class);
+    assertFails(policy, call, IOException.class);
+    Assert.assertEquals(policy.call(call), OK);
+    Assert.assertEquals(call.calls, 4);
+  }
+
+  @Test(groups = "fast")
+  public void testOpenRejectsAsyncCalls() throws Exception {
+    final AdyenResiliencePolicy policy = newPolicy(0, 1, NEVER_MILLIS);
+    final FakeCall call = new FakeCall(new IOException());
+    assertFails(policy, call, IOException.class);
+
+    final CompletableFuture<String> rejected = policy.callAsync(call::async);
+    try {
+      rejected.get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof RequestRejectedException, e.toString());
+    }
+    Assert.assertEquals(call.calls, 1);
+  }
+
+  /** A single call probes Adyen once the breaker was open long enough */
+  @Test(groups = "fast")
+  public void testSingleHalfOpenProbe() throws Exception {
+    final AdyenResiliencePolicy policy = newPolicy(0, 1, 0);
+    final FakeCall failure = new FakeCall(new IOException());
+    assertFails(policy, failure, IOException.class);
+
+    final FakeCall concurrent = new FakeCall(OK);
+    final GatewayCall<String> probe =
+        () -> {
+          // Issued while the probe is in flight
+          assertFails(policy, concurrent, RequestRejectedException.class);
+          return OK;
+        };
+    Assert.assertEquals(policy.call(probe), OK);
+    Assert.assertEquals(concurrent.calls, 0);
+
+    // Closed by the successful probe
+    Assert.assertEquals(policy.call(concurrent), OK);
+    Assert.assertEquals(concurrent.calls, 1);
+  }
+
+  @Test(groups = "fast")
+  public void testFailedProbeReopens() throws Exception {
+    final long openMillis = 100;
+    final AdyenResiliencePolicy policy = newPolicy(2, 1, openMillis);
+    final FakeCall call = new FakeCall(new IOException(), new IOException(), OK);
+    assertFails(policy, call, IOException.class);
+    assertFails(policy, call, RequestRejectedException.class);
+
+    Thread.sleep(openMillis * 2);
+    // The probe fails, and is not retried
+    assertFails(policy, call, IOException.class);
+    assertFails(policy, call, RequestRejectedException.class);
+    Assert.assertEquals(call.calls, 2);
+
+    Thread.sleep(openMillis * 2);
+    Assert.assertEquals(policy.call(call), OK);
+    Assert.assertEquals(call.calls, 3);
+  }
+
+  /** A probe the bulkhead did not send says nothing about Adyen, another call probes instead */
+  @Test(groups = "fast")
+  public void testBulkheadRejectionReleasesProbe() throws Exception {
+    final AdyenResiliencePolicy policy = newPolicy(2, 1, 0);
+    final FakeCall call =
+        new FakeCall(new IOException(), new RequestRejectedException("Bulkhead full"), OK, OK);
+    assertFails(policy, call, IOException.class);
+
+    assertFails(policy, call, RequestRejectedException.class);
+    // Not retried
+    Assert.assertEquals(call.calls, 2);
+
+    Assert.assertEquals(policy.call(call), OK);
+    Assert.assertEquals(policy.call(call), OK);
+    Assert.assertEquals(call.calls, 4);
+  }
+
+  @Test(groups = "fast")
+  public void testBulkheadRejectionIsNotCounted() throws Exception {
+    final AdyenResiliencePolicy policy = newPolicy(0, 1, NEVER_MILLIS);
+    final FakeCall call = new FakeCall(new RequestRejectedException("Bulkhead full"), OK);
+
+    assertFails(policy, call, RequestRejectedException.class);
+    Assert.assertEquals(policy.call(call), OK);
+    Assert.assertEquals(call.calls, 2);
+  }
+
+  /** E.g. an unreadable response: the probe is released, and the breaker opened again */
+  @Test(groups = "fast")
+  public void testUnexpectedProbeFailureReopens() throws Exception {
+    final long openMillis = 100;
+    final AdyenResiliencePolicy policy = newPolicy(2, 1, openMillis);
+    final FakeCall call =
+        new FakeCall(new IOException(), new JsonSyntaxException("Unreadable response"), OK);
+    assertFails(policy, call, IOException.class);
+
+    Thread.sleep(openMillis * 2);
+    // Not retried
+    assertFails(policy, call, JsonSyntaxException.class);
+    Assert.assertEquals(call.calls, 2);
+    assertFails(policy, call, RequestRejectedException.class);
+
+    Thread.sleep(openMillis * 2);
+    Assert.assertEquals(policy.call(call), OK);
+    Assert.assertEquals(call.calls, 3);
+  }
+
+  @Test(groups = "fast")
+  public void testUnexpectedAsyncProbeFailureReopens() throws Exception {
+    final long openMillis = 100;
+    final AdyenResiliencePolicy policy = newPolicy(2, 1, openMillis);
+    final FakeCall call = new FakeCall(new IOException(), new IllegalStateException(), OK);
+    assertFails(policy, call, IOException.class);
+
+    Thread.sleep(openMillis * 2);
+    // Thrown by the supplier rather than failing the future
+    try {
+      policy.callAsync(call::async).get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException, e.toString());
+    }
+    Assert.assertEquals(call.calls, 2);
+    assertFails(policy, call, RequestRejectedException.class);
+
+    Thread.sleep(openMillis * 2);
+    Assert.assertEquals(policy.callAsync(call::async).get(), OK);
+    Assert.assertEquals(call.calls, 3);
+  }
+
+  @Test(groups = "fast")
+  public void testRetriesTransientFailures() throws Exception {
+    for (final Exception transientFailure :
+        Arrays.asList(
+            new ApiException("Too many requests", 429),
+            new ApiException("Internal error", 500),
+            new ApiException("Unavailable", 503),
+            new IOException("Connection reset"))) {
+      final AdyenResiliencePolicy policy = newPolicy(2, 0, 0);
+      final FakeCall call = new FakeCall(transientFailure, transientFailure, transientFailure);
+      assertFails(policy, call, transientFailure.getClass());
+      Assert.assertEquals(call.calls, 3, transientFailure.toString());
+
+      final FakeCall recovering = new FakeCall(transientFailure, OK);
+      Assert.assertEquals(policy.call(recovering), OK);
+      Assert.assertEquals(recovering.calls, 2, transientFailure.toString());
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testDoesNotRetryOtherFailures() throws Exception {
+    for (final Exception failure :
+        Arrays.asList(
+            new ApiException("Bad request", 400),
+            new ApiException("Unauthorized", 401),
+            new ApiException("Unprocessable", 422),
+            new RequestRejectedException("Bulkhead full"))) {
+      final AdyenResiliencePolicy policy = newPolicy(2, 0, 0);
+      final FakeCall call = new FakeCall(failure, OK);
+      assertFails(policy, call, failure.getClass());
+      Assert.assertEquals(call.calls, 1, failure.toString());
+    }
+
+    final AdyenResiliencePolicy policy = newPolicy(2, 0, 0);
+    final FakeCall call = new FakeCall(new IllegalStateException(), OK);
+    assertFails(policy, call, IllegalStateException.class);
+    Assert.assertEquals(call.calls, 1);
+  }
+
+  @Test(groups = "fast")
+  public void testRetriesAsyncTransientFailures() throws Exception {
+    final AdyenResiliencePolicy policy = newPolicy(2, 0, 0);
+    final FakeCall call = new FakeCall(new ApiException("Unavailable", 503), new IOException(), OK);
+    Assert.assertEquals(policy.callAsync(call::async).get(), OK);
+    Assert.assertEquals(call.calls, 3);
+
+    final FakeCall refused = new FakeCall(new ApiException("Bad request", 400), OK);
+    try {
+      policy.callAsync(refused::async).get();
+      Assert.fail();
+    } catch (final ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof ApiException, e.toString());
+    }
+    Assert.assertEquals(refused.calls, 1);
+  }
+
+  private static AdyenResiliencePolicy newPolicy(
+      final int maxRetries, final int circuitBreakerFailures, final long circuitBreakerOpenMillis) {
+    final Properties properties = new Properties();
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.maxRetries", String.valueOf(maxRetries));
+    properties.setProperty("org.killbill.billing.plugin.adyen.retryBackoffMillis", "0");
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.circuitBreakerFailures",
+        String.valueOf(circuitBreakerFailures));
+    properties.setProperty(
+        "org.killbill.billing.plugin.adyen.circuitBreakerOpenMillis",
+        String.valueOf(circuitBreakerOpenMillis));
+    return new AdyenResiliencePolicy(new AdyenConfigProperties(properties, ""), "test");
+  }
+
+  private static void assertFails(
+      final AdyenResiliencePolicy policy,
+      final GatewayCall<String> call,
+      final Class<? extends Exception> expected) {
+    try {
+      policy.call(call);
+      Assert.fail("Expected " + expected.getSimpleName());
+    } catch (final Exception e) {
+      Assert.assertEquals(e.getClass(), expected, e.toString());
+    }
+  }
+
+  /** Answers with the given outcomes in turn: exceptions are thrown, anything else returned */
+  private static final class FakeCall implements GatewayCall<String> {
+
+    private final Deque<Object> outcomes;
+    private int calls;
+
+    private FakeCall(final Object... outcomes) {
+      this.outcomes = new ArrayDeque<>(Arrays.asList(outcomes));
+    }
+
+    @Override
+    public String call() throws IOException, ApiException {
+      calls++;
+      final Object outcome = outcomes.removeFirst();
+      if (outcome instanceof IOException) {
+        throw (IOException) outcome;
+      } else if (outcome instanceof ApiException) {
+        throw (ApiException) outcome;
+      } else if (outcome instanceof RuntimeException) {
+        throw (RuntimeException) outcome;
+      }
+      return (String) outcome;
+    }
+
+    private CompletableFuture<String> async() {
+      final CompletableFuture<String> future = new CompletableFuture<>();
+      try {
+        future.complete(call());
+      } catch (final IOException | ApiException e) {
+        future.completeExceptionally(e);
+      }
+      return future;
+    }
+  }
+}
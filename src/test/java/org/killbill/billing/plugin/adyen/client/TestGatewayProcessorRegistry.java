@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.plugin.adyen.client;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.killbill.billing.plugin.adyen.api.ProcessorInputDTO;
+import org.killbill.billing.plugin.adyen.api.ProcessorOutputDTO;
+import org.killbill.billing.plugin.adyen.core.AdyenConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestGatewayProcessorRegistry {
+
+  private static final UUID TENANT_ID = UUID.randomUUID();
+
+  private final AtomicInteger built = new AtomicInteger();
+  private final GatewayProcessorRegistry registry =
+      new GatewayProcessorRegistry(
+          (configProperties, kbTenantId) -> {
+            built.incrementAndGet();
+            return new FakeGatewayProcessor();
+          });
+
+  @Test(groups = "fast")
+  public void testReusedForTheSameConfiguration() {
+    final AdyenConfigProperties configProperties = newConfigProperties();
+    try (GatewayProcessorRegistry.Lease first = registry.acquire(TENANT_ID, configProperties);
+        GatewayProcessorRegistry.Lease second = registry.acquire(TENANT_ID, configProperties)) {
+      Assert.assertSame(first.getProcessor(), second.getProcessor());
+    }
+    Assert.assertEquals(built.get(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testReplacedProcessorClosedOnceDrained() {
+    final GatewayProcessorRegistry.Lease inFlight =
+        registry.acquire(TENANT_ID, newConfigProperties());
+    final FakeGatewayProcessor replaced = (FakeGatewayProcessor) inFlight.getProcessor();
+
+    // The configuration is re-uploaded while a payment is in flight
+    try (GatewayProcessorRegistry.Lease lease =
+        registry.acquire(TENANT_ID, newConfigProperties())) {
+      Assert.assertNotSame(lease.getProcessor(), replaced);
+    }
+    Assert.assertEquals(replaced.closed.get(), 0);
+
+    inFlight.close();
+    Assert.assertEquals(replaced.closed.get(), 1);
+    // Closing a lease twice does not release the processor twice
+    inFlight.close();
+    Assert.assertEquals(replaced.closed.get(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testInvalidatedProcessorClosedOnceDrained() {
+    final GatewayProcessorRegistry.Lease inFlight =
+        registry.acquire(TENANT_ID, newConfigProperties());
+    final FakeGatewayProcessor invalidated = (FakeGatewayProcessor) inFlight.getProcessor();
+
+    registry.invalidate(TENANT_ID);
+    Assert.assertEquals(invalidated.closed.get(), 0);
+    inFlight.close();
+    Assert.assertEquals(invalidated.closed.get(), 1);
+
+    // Without any lease, invalidating closes right away
+    final FakeGatewayProcessor idle;
+    try (GatewayProcessorRegistry.Lease lease = registry.acquire(null, newConfigProperties())) {
+      idle = (FakeGatewayProcessor) lease.getProcessor();
+    }
+    Assert.assertEquals(idle.closed.get(), 0);
+    registry.invalidateAll();
+    Assert.assertEquals(idle.closed.get(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testNotReplacedByAnOlderConfiguration() {
+    final AdyenConfigProperties stale = newConfigProperties();
+    final AdyenConfigProperties current = newConfigProperties();
+
+    final GatewayProcessor currentProcessor;
+    try (GatewayProcessorRegistry.Lease lease = registry.acquire(TENANT_ID, current)) {
+      currentProcessor = lease.getProcessor();
+    }
+    // A thread which read the configuration before it was re-uploaded gets the current processor
+    try (GatewayProcessorRegistry.Lease lease = registry.acquire(TENANT_ID, stale)) {
+      Assert.assertSame(lease.getProcessor(), currentProcessor);
+    }
+    Assert.assertEquals(((FakeGatewayProcessor) currentProcessor).closed.get(), 0);
+    Assert.assertEquals(built.get(), 1);
+  }
+
+  private static AdyenConfigProperties newConfigProperties() {
+    return new AdyenConfigProperties(new Properties(), "us-east-1");
+  }
+
+  private static final class FakeGatewayProcessor implements GatewayProcessor {
+
+    private final AtomicInteger closed = new AtomicInteger();
+
+    @Override
+    public ProcessorOutputDTO processOneTimePayment(final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ProcessorOutputDTO processPayment(final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ProcessorOutputDTO refundPayment(final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ProcessorOutputDTO voidPayment(final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ProcessorOutputDTO> processOneTimePaymentAsync(
+        final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ProcessorOutputDTO> processPaymentAsync(
+        final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ProcessorOutputDTO> refundPaymentAsync(final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ProcessorOutputDTO> voidPaymentAsync(final ProcessorInputDTO input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ProcessorInputDTO validateData(
+        final AdyenConfigProperties adyenConfigProperties,
+        final Map<String, String> properties,
+        final UUID kbTenantId,
+        final UUID kbAccountId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AdyenHttpTransport.Stats getTransportStats() {
+      return new AdyenHttpTransport.Stats(0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void ping() {}
+
+    @Override
+    public void close() {
+      closed.incrementAndGet();
+    }
+  }
+}
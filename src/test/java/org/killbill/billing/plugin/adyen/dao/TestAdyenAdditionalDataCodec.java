@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.dao;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdyenAdditionalDataCodec {
+
+  @Test(groups = "fast")
+  public void testCompressedRoundTrip() throws Exception {
+    final Map<String, String> additionalData = newAdditionalData(50);
+
+    final String compressed = AdyenAdditionalDataCodec.write(additionalData, true);
+    Assert.assertTrue(AdyenAdditionalDataCodec.isCompressed(compressed));
+    Assert.assertTrue(compressed.startsWith(AdyenAdditionalDataCodec.COMPRESSED_V1));
+    Assert.assertTrue(
+        compressed.length() < AdyenAdditionalDataCodec.write(additionalData, false).length());
+    Assert.assertEquals(AdyenAdditionalDataCodec.read(compressed), additionalData);
+  }
+
+  @Test(groups = "fast")
+  public void testPlainRoundTrip() throws Exception {
+    final Map<String, String> additionalData = newAdditionalData(50);
+
+    final String json = AdyenAdditionalDataCodec.write(additionalData, false);
+    Assert.assertFalse(AdyenAdditionalDataCodec.isCompressed(json));
+    Assert.assertTrue(json.startsWith("{"));
+    Assert.assertEquals(AdyenAdditionalDataCodec.read(json), additionalData);
+    Assert.assertEquals(AdyenAdditionalDataCodec.write(additionalData), json);
+  }
+
+  /** Rows written before compression was introduced are plain JSON */
+  @Test(groups = "fast")
+  public void testReadsPlainJson() {
+    Assert.assertEquals(
+        AdyenAdditionalDataCodec.read("{\"pspReference\":\"8815\",\"resultCode\":\"Authorised\"}"),
+        ImmutableMap.of("pspReference", "8815", "resultCode", "Authorised"));
+  }
+
+  @Test(groups = "fast")
+  public void testSmallMapStaysPlain() throws Exception {
+    final Map<String, String> additionalData = ImmutableMap.of("pspReference", "8815");
+
+    final String written = AdyenAdditionalDataCodec.write(additionalData, true);
+    Assert.assertFalse(AdyenAdditionalDataCodec.isCompressed(written));
+    Assert.assertEquals(written, AdyenAdditionalDataCodec.write(additionalData, false));
+    Assert.assertEquals(AdyenAdditionalDataCodec.read(written), additionalData);
+  }
+
+  @Test(groups = "fast")
+  public void testNullAndEmpty() throws Exception {
+    Assert.assertNull(AdyenAdditionalDataCodec.write(null, true));
+    Assert.assertNull(AdyenAdditionalDataCodec.write(null, false));
+    Assert.assertNull(AdyenAdditionalDataCodec.write(ImmutableMap.of(), true));
+    Assert.assertFalse(AdyenAdditionalDataCodec.isCompressed(null));
+    Assert.assertTrue(AdyenAdditionalDataCodec.read(null).isEmpty());
+  }
+
+  // Keys and values repeat, as in the responses of Adyen
+  private static Map<String, String> newAdditionalData(final int entries) {
+    final Map<String, String> additionalData = new LinkedHashMap<>();
+    for (int i = 0; i < entries; i++) {
+      additionalData.put("additionalData.field" + i, "value-" + (i % 5));
+    }
+    return additionalData;
+  }
+}
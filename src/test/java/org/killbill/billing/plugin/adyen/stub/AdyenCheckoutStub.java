@@ -0,0 +1,278 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.stub;
+
+import com.adyen.model.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the Adyen Checkout API, listening on a random local port. Point the
+ * plugin to it with the {@code checkoutUrl} configuration property.
+ *
+ * <p>Each {@link Operation} can be given a {@link Latency} and an error rate. Successful calls
+ * queue the notification Adyen would send for them, see {@link #drainNotifications()} and {@link
+ * AdyenWebhookGenerator}. Configure the stub before starting it.
+ */
+public class AdyenCheckoutStub {
+
+  public enum Operation {
+    SESSIONS,
+    PAYMENT_METHODS,
+    PAYMENTS,
+    REFUNDS,
+    REVERSALS
+  }
+
+  /** Delay before the stub answers, drawn for every request */
+  @FunctionalInterface
+  public interface Latency {
+
+    long nextMillis();
+
+    static Latency none() {
+      return () -> 0;
+    }
+
+    static Latency fixed(final long millis) {
+      return () -> millis;
+    }
+
+    static Latency uniform(final long minMillis, final long maxMillis) {
+      return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+    }
+
+    /** Long tailed, as observed against Adyen: median and sigma of the underlying normal */
+    static Latency logNormal(final double medianMillis, final double sigma) {
+      return () ->
+          Math.round(medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+  }
+
+  private static final Pattern PATH =
+      Pattern.compile(".*/(sessions|paymentMethods|payments)(?:/([^/]+)/(refunds|reversals))?$");
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Map<Operation, Latency> latencies = new EnumMap<>(Operation.class);
+  private final Map<Operation, Double> errorRates = new EnumMap<>(Operation.class);
+  private final Map<Operation, LongAdder> requestCounts = new EnumMap<>(Operation.class);
+  private final Queue<NotificationRequestItem> notifications = new ConcurrentLinkedQueue<>();
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  public AdyenCheckoutStub() throws IOException {
+    for (final Operation operation : Operation.values()) {
+      latencies.put(operation, Latency.none());
+      errorRates.put(operation, 0.0);
+      requestCounts.put(operation, new LongAdder());
+    }
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    // Unbounded, so that simulated latency does not throttle the throughput
+    this.executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+  }
+
+  public AdyenCheckoutStub withLatency(final Latency latency) {
+    for (final Operation operation : Operation.values()) {
+      withLatency(operation, latency);
+    }
+    return this;
+  }
+
+  public AdyenCheckoutStub withLatency(final Operation operation, final Latency latency) {
+    latencies.put(operation, latency);
+    return this;
+  }
+
+  public AdyenCheckoutStub withErrorRate(final double errorRate) {
+    for (final Operation operation : Operation.values()) {
+      withErrorRate(operation, errorRate);
+    }
+    return this;
+  }
+
+  /** Share of the calls, between 0 and 1, answered with an Adyen internal error */
+  public AdyenCheckoutStub withErrorRate(final Operation operation, final double errorRate) {
+    errorRates.put(operation, errorRate);
+    return this;
+  }
+
+  public AdyenCheckoutStub start() {
+    server.start();
+    return this;
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /** Value for the {@code checkoutUrl} configuration property */
+  public String getCheckoutUrl() {
+    return "http://"
+        + server.getAddress().getAddress().getHostAddress()
+        + ":"
+        + server.getAddress().getPort()
+        + "/checkout";
+  }
+
+  public long getRequestCount(final Operation operation) {
+    return requestCounts.get(operation).sum();
+  }
+
+  /** Returns, and forgets, the notifications of the calls answered so far */
+  public List<NotificationRequestItem> drainNotifications() {
+    final List<NotificationRequestItem> drained = new ArrayList<>();
+    NotificationRequestItem item;
+    while ((item = notifications.poll()) != null) {
+      drained.add(item);
+    }
+    return drained;
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    final JsonNode request;
+    try (InputStream body = exchange.getRequestBody()) {
+      request = objectMapper.readTree(body);
+    }
+
+    final Matcher matcher = PATH.matcher(exchange.getRequestURI().getPath());
+    if (!"POST".equals(exchange.getRequestMethod()) || !matcher.matches()) {
+      respond(exchange, 404, "{\"status\":404,\"errorCode\":\"000\",\"message\":\"Not stubbed\"}");
+      return;
+    }
+    final Operation operation;
+    if ("sessions".equals(matcher.group(1))) {
+      operation = Operation.SESSIONS;
+    } else if ("paymentMethods".equals(matcher.group(1))) {
+      operation = Operation.PAYMENT_METHODS;
+    } else if (matcher.group(3) == null) {
+      operation = Operation.PAYMENTS;
+    } else {
+      operation = "refunds".equals(matcher.group(3)) ? Operation.REFUNDS : Operation.REVERSALS;
+    }
+    requestCounts.get(operation).increment();
+
+    final long latencyMillis = latencies.get(operation).nextMillis();
+    if (latencyMillis > 0) {
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    if (ThreadLocalRandom.current().nextDouble() < errorRates.get(operation)) {
+      respond(
+          exchange,
+          500,
+          "{\"status\":500,\"errorCode\":\"905\",\"message\":\"Stubbed error\","
+              + "\"errorType\":\"internal\"}");
+      return;
+    }
+    if (operation == Operation.PAYMENT_METHODS) {
+      respond(
+          exchange,
+          200,
+          "{\"paymentMethods\":[{\"name\":\"Credit Card\",\"type\":\"scheme\"}]}");
+      return;
+    }
+
+    final String pspReference = newPspReference();
+    final ObjectNode response = objectMapper.createObjectNode();
+    response.put("pspReference", pspReference);
+    response.set("merchantAccount", request.get("merchantAccount"));
+    response.set("reference", request.get("reference"));
+    final NotificationRequestItem notification =
+        new NotificationRequestItem()
+            .setPspReference(pspReference)
+            .setMerchantAccountCode(request.path("merchantAccount").asText(null))
+            .setMerchantReference(request.path("reference").asText(null))
+            .setSuccess(true);
+    if (request.has("amount")) {
+      response.set("amount", request.get("amount"));
+      notification.setAmount(
+          new Amount()
+              .currency(request.path("amount").path("currency").asText())
+              .value(request.path("amount").path("value").asLong()));
+    }
+    switch (operation) {
+      case SESSIONS:
+        response.put("id", "CS" + pspReference);
+        response.put("sessionData", UUID.randomUUID().toString());
+        response.set("returnUrl", request.get("returnUrl"));
+        // As if the shopper went through the drop-in right away
+        notification.setEventCode("AUTHORISATION");
+        break;
+      case PAYMENTS:
+        response.put("resultCode", "Authorised");
+        notification.setEventCode("AUTHORISATION");
+        break;
+      case REFUNDS:
+        response.put("paymentPspReference", matcher.group(2));
+        response.put("status", "received");
+        notification.setEventCode("REFUND").setOriginalReference(matcher.group(2));
+        break;
+      case REVERSALS:
+        response.put("paymentPspReference", matcher.group(2));
+        response.put("status", "received");
+        notification.setEventCode("CANCEL_OR_REFUND").setOriginalReference(matcher.group(2));
+        break;
+    }
+    notifications.add(notification);
+    respond(exchange, operation == Operation.PAYMENTS ? 200 : 201, response.toString());
+  }
+
+  private static void respond(final HttpExchange exchange, final int status, final String json)
+      throws IOException {
+    final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static String newPspReference() {
+    return UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020-2023 Equinix, Inc
+ * Copyright 2014-2023 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.adyen.stub;
+
+import com.adyen.constants.ApiConstants;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.SignatureException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders notification items, e.g. from {@link AdyenCheckoutStub#drainNotifications()}, as the
+ * signed JSON webhooks Adyen sends, and optionally posts them to the plugin.
+ */
+public class AdyenWebhookGenerator {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final HMACValidator hmacValidator = new HMACValidator();
+  private final String hmacKey;
+
+  /** @param hmacKey hex encoded key, the {@code hcmaKey} of the plugin configuration */
+  public AdyenWebhookGenerator(final String hmacKey) {
+    this.hmacKey = hmacKey;
+  }
+
+  public String toJson(final Iterable<NotificationRequestItem> items) throws SignatureException {
+    final ObjectNode notification = objectMapper.createObjectNode();
+    notification.put("live", "false");
+    final ArrayNode containers = notification.putArray("notificationItems");
+    for (final NotificationRequestItem item : items) {
+      final Map<String, String> additionalData =
+          item.getAdditionalData() != null
+              ? new HashMap<>(item.getAdditionalData())
+              : new HashMap<>();
+      additionalData.put(
+          ApiConstants.AdditionalData.HMAC_SIGNATURE, hmacValidator.calculateHMAC(item, hmacKey));
+
+      final ObjectNode node =
+          containers.addObject().putObject("NotificationRequestItem");
+      node.set("additionalData", objectMapper.valueToTree(additionalData));
+      if (item.getAmount() != null) {
+        node.putObject("amount")
+            .put("currency", item.getAmount().getCurrency())
+            .put("value", item.getAmount().getValue());
+      }
+      node.put("eventCode", item.getEventCode());
+      node.put("merchantAccountCode", item.getMerchantAccountCode());
+      node.put("merchantReference", item.getMerchantReference());
+      node.put("originalReference", item.getOriginalReference());
+      node.put("pspReference", item.getPspReference());
+      node.put("reason", item.getReason());
+      node.put("success", String.valueOf(item.isSuccess()));
+    }
+    return notification.toString();
+  }
+
+  /**
+   * Posts the webhook to e.g. {@code http://127.0.0.1:8080/plugins/adyen-plugin/notification} and
+   * returns the HTTP status
+   */
+  public int post(
+      final String url,
+      final String username,
+      final String password,
+      final Iterable<NotificationRequestItem> items)
+      throws IOException, SignatureException {
+    final byte[] body = toJson(items).getBytes(StandardCharsets.UTF_8);
+    final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/json");
+      if (username != null) {
+        connection.setRequestProperty(
+            "Authorization",
+            "Basic "
+                + Base64.getEncoder()
+                    .encodeToString(
+                        (username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+      }
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+      return connection.getResponseCode();
+    } finally {
+      connection.disconnect();
+    }
+  }
+}